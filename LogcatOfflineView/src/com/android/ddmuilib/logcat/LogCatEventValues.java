@@ -0,0 +1,105 @@
+package com.android.ddmuilib.logcat;
+
+import java.util.Locale;
+
+/**
+ * The values of a message of the events buffer, decoded once when the log is parsed
+ * so that they can be compared without looking at the text of the message again.
+ * Numbers are kept as {@code long}s, floats as the bits of their {@code double}.
+ */
+public final class LogCatEventValues {
+    /** The types of the values, numbered like those of the events buffer. */
+    public static final byte TYPE_INT = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_STRING = 2;
+    public static final byte TYPE_FLOAT = 4;
+
+    private final String[] mNames;
+    private final byte[] mTypes;
+    private final long[] mNumbers;
+    private final String[] mStrings;
+
+    /**
+     * @param names the names of the values, shared by all the events of a tag, or null
+     * if they are not known. It must not be modified afterwards.
+     * @param types the type of each value
+     * @param numbers the numeric values, the floats as {@link Double#doubleToLongBits(double)}
+     * @param strings the string values, null for numbers, or null if there is none
+     */
+    public LogCatEventValues(String[] names, byte[] types, long[] numbers, String[] strings) {
+        mNames = names;
+        mTypes = types;
+        mNumbers = numbers;
+        mStrings = strings;
+    }
+
+    public int size() {
+        return mTypes.length;
+    }
+
+    public byte getType(int index) {
+        return mTypes[index];
+    }
+
+    public boolean isNumber(int index) {
+        return mTypes[index] != TYPE_STRING;
+    }
+
+    public long getLong(int index) {
+        return mTypes[index] == TYPE_FLOAT ? (long) getDouble(index) : mNumbers[index];
+    }
+
+    public double getDouble(int index) {
+        if (mTypes[index] == TYPE_FLOAT) {
+            return Double.longBitsToDouble(mNumbers[index]);
+        }
+        return mNumbers[index];
+    }
+
+    /** The value as text, as logcat prints it. */
+    public String getString(int index) {
+        switch (mTypes[index]) {
+        case TYPE_STRING:
+            return mStrings[index];
+        case TYPE_FLOAT:
+            return Float.toString((float) getDouble(index));
+        default:
+            return Long.toString(mNumbers[index]);
+        }
+    }
+
+    /**
+     * The names of the values, shared by the events of a tag, or null if they are not
+     * known. Callers must not modify it.
+     */
+    public String[] getNames() {
+        return mNames;
+    }
+
+    /** @return the name of a value, or null if it is not known. */
+    public String getName(int index) {
+        return mNames != null && index < mNames.length ? mNames[index] : null;
+    }
+
+    /**
+     * Index of the value of the given name. Names are compared ignoring case, with
+     * '_' standing for a space, so that {@code process_name} finds "Process Name".
+     * @return the index, or -1 if there is no such value.
+     */
+    public int indexOf(String name) {
+        if (mNames == null) {
+            return -1;
+        }
+        String key = normalizeName(name);
+        for (int i = 0; i < mNames.length && i < mTypes.length; i++) {
+            if (normalizeName(mNames[i]).equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String normalizeName(String name) {
+        return name.trim().replace(' ', '_').toLowerCase(Locale.US);
+    }
+}
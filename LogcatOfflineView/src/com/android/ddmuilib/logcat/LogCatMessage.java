@@ -25,52 +25,138 @@ import com.android.ddmlib.Log.LogLevel;
  * the tag and message itself.
  */
 public final class LogCatMessage {
-    private final LogLevel mLogLevel;
-    private final String mPid;
-    private final String mTid;
+    /** {@link #getTimestamp()} of a message whose time is not known. */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    /** {@link #getPidValue()} or {@link #getTidValue()} when it is not known, shown as "?". */
+    public static final int NO_ID = -1;
+    /**
+     * The largest pid or tid kept, larger ones are {@link #NO_ID}, so that
+     * {@code id + 1} may index a set of ids holding {@link #NO_ID} at 0.
+     */
+    public static final int MAX_ID = Integer.MAX_VALUE - 1;
+
+    private static final LogLevel[] LEVELS = LogLevel.values();
+
+    /** Ordinal of the {@link LogLevel}. */
+    private final byte mLogLevel;
+    private final LogCatSymbolTable mSymbols;
+    private final int mPid;
+    private final int mTid;
 //    private final String mAppName;
-    private final String mTag;
+    private final int mTag;
     private final String mTime;
+    private final long mTimestamp;
     private final String mMessage;
+    /**
+     * Offsets in {@link #mMessage} of the lines following the first one, each after
+     * a '\n', or null for a message of a single line.
+     */
+    private final int[] mLineStarts;
+    /** The decoded values of a message of the events buffer, or null. */
+    private final LogCatEventValues mEventValues;
 
     /**
      * Construct an immutable log message object.
      */
     public LogCatMessage(LogLevel logLevel, String pid, String tid, 
             String tag, String time, String msg) {
-        mLogLevel = logLevel;
+        this(logLevel, LogCatSymbolTable.getDefault(), pid, tid, tag, time, msg);
+    }
+
+    /**
+     * Construct an immutable log message object whose tag is kept in {@code symbols}.
+     */
+    public LogCatMessage(LogLevel logLevel, LogCatSymbolTable symbols, String pid, String tid,
+            String tag, String time, String msg) {
+        this(logLevel, symbols, parseId(pid), parseId(tid), symbols.intern(tag),
+                time, NO_TIMESTAMP, msg);
+    }
+
+    /**
+     * Construct an immutable log message object from its pid and tid, or
+     * {@link #NO_ID}, and the id of its tag in {@code symbols}. {@code timestamp} is
+     * {@code time} in epoch milliseconds, or {@link #NO_TIMESTAMP}.
+     */
+    public LogCatMessage(LogLevel logLevel, LogCatSymbolTable symbols, int pid, int tid,
+            int tag, String time, long timestamp, String msg) {
+        mLogLevel = (byte) logLevel.ordinal();
+        mSymbols = symbols;
         mPid = pid;
 //        mAppName = appName;
         mTag = tag;
+        mTid = tid;
         mTime = time;
+        mTimestamp = timestamp;
+        mMessage = msg;
+        mLineStarts = null;
+        mEventValues = null;
+    }
+
+    private LogCatMessage(LogCatMessage m, String msg, int[] lineStarts,
+            LogCatEventValues eventValues) {
+        mLogLevel = m.mLogLevel;
+        mSymbols = m.mSymbols;
+        mPid = m.mPid;
+        mTag = m.mTag;
+        mTid = m.mTid;
+        mTime = m.mTime;
+        mTimestamp = m.mTimestamp;
         mMessage = msg;
+        mLineStarts = lineStarts;
+        mEventValues = eventValues;
+    }
+
+    /**
+     * Copy of this message with the text of several lines, such as a stack trace
+     * logged as one message.
+     * @param msg the lines, separated by '\n'
+     * @param lineStarts the offsets in {@code msg} of the lines following the first one
+     */
+    public LogCatMessage withLines(String msg, int[] lineStarts) {
+        return new LogCatMessage(this, msg, lineStarts.length == 0 ? null : lineStarts,
+                mEventValues);
+    }
+
+    /** Copy of this message of the events buffer with its decoded values. */
+    public LogCatMessage withEventValues(LogCatEventValues values) {
+        return new LogCatMessage(this, mMessage, mLineStarts, values);
+    }
 
-        long tidValue;
+    /**
+     * @return the value of a pid or tid, in decimal or, as thread ids are on some
+     * platforms, in hex after "0x", or {@link #NO_ID} if it is not a number.
+     */
+    public static int parseId(String id) {
+        String value = id.trim();
         try {
-            // Thread id's may be in hex on some platforms.
-            // Decode and store them in radix 10.
-            tidValue = Long.decode(tid.trim());
+            long n = value.startsWith("0x") || value.startsWith("0X")
+                    ? Long.parseLong(value.substring(2), 16) : Long.parseLong(value);
+            return toId(n);
         } catch (NumberFormatException e) {
-            tidValue = -1;
+            return NO_ID;
         }
+    }
 
-        if (tidValue == -1){
-        	mTid = "?";
-        } else {
-        	mTid = Long.toString(tidValue);
-        }
+    /** @return a pid or tid decoded as a number, or {@link #NO_ID} if it is out of range. */
+    public static int toId(long n) {
+        return n >= 0 && n <= MAX_ID ? (int) n : NO_ID;
+    }
+
+    /** @return a pid or tid in radix 10, or "?" for {@link #NO_ID}. */
+    public static String formatId(int id) {
+        return id == NO_ID ? "?" : Integer.toString(id);
     }
 
     public LogLevel getLogLevel() {
-        return mLogLevel;
+        return LEVELS[mLogLevel];
     }
 
     public String getPid() {
-        return mPid;
+        return formatId(mPid);
     }
 
     public String getTid() {
-        return mTid;
+        return formatId(mTid);
     }
 
 //    public String getAppName() {
@@ -78,6 +164,25 @@ public final class LogCatMessage {
 //    }
 
     public String getTag() {
+        return mSymbols.get(mTag);
+    }
+
+    /** The table of {@link #getTagId()}. */
+    public LogCatSymbolTable getSymbols() {
+        return mSymbols;
+    }
+
+    /** The pid, or {@link #NO_ID}. */
+    public int getPidValue() {
+        return mPid;
+    }
+
+    /** The tid, or {@link #NO_ID}. */
+    public int getTidValue() {
+        return mTid;
+    }
+
+    public int getTagId() {
         return mTag;
     }
 
@@ -85,16 +190,55 @@ public final class LogCatMessage {
         return mTime;
     }
 
+    /**
+     * The time of the message in epoch milliseconds, or {@link #NO_TIMESTAMP}. Unlike
+     * {@link #getTime()}, it keeps its order across month and year boundaries.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** The text of the message, its lines separated by '\n'. */
     public String getMessage() {
         return mMessage;
     }
 
+    /** The decoded values of a message of the events buffer, or null for other messages. */
+    public LogCatEventValues getEventValues() {
+        return mEventValues;
+    }
+
+    public int getLineCount() {
+        return mLineStarts == null ? 1 : mLineStarts.length + 1;
+    }
+
+    /** Line {@code index} of the text of the message, without its '\n'. */
+    public String getLine(int index) {
+        if (mLineStarts == null) {
+            return mMessage;
+        }
+        int start = index == 0 ? 0 : mLineStarts[index - 1];
+        int end = index == mLineStarts.length ? mMessage.length() : mLineStarts[index] - 1;
+        return mMessage.substring(start, end);
+    }
+
+    /** The message as logcat prints it, one line per line of its text. */
     @Override
     public String toString() {
-        return mTime + ": "
-                + mLogLevel.getPriorityLetter() + "/"
-                + mTag + "("
-                + mPid + "): "
-                + mMessage;
+        String prefix = mTime + ": "
+                + getLogLevel().getPriorityLetter() + "/"
+                + getTag() + "("
+                + getPid() + "): ";
+        if (mLineStarts == null) {
+            return prefix + mMessage;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < getLineCount(); i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(prefix).append(getLine(i));
+        }
+        return sb.toString();
     }
 }
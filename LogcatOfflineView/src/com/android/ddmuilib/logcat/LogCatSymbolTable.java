@@ -0,0 +1,63 @@
+package com.android.ddmuilib.logcat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of the tags of the messages of a log file. A log with millions of lines
+ * usually has a few hundred tags, so each distinct tag is stored once and
+ * {@link LogCatMessage} only keeps its id. Two
+ * messages of the same table have the same tag if and only if they have the same
+ * tag id.
+ * <p/>
+ * Values may be interned by several parser threads at once, and read from any
+ * thread.
+ */
+public final class LogCatSymbolTable {
+    /** Shared by the messages that are not created by a parser of log files. */
+    private static final LogCatSymbolTable sDefault = new LogCatSymbolTable();
+
+    private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+    private volatile String[] mSymbols = new String[256];
+    private volatile int mSize;
+
+    public static LogCatSymbolTable getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * @return the id of {@code symbol}, which is added to the table if it is not in it
+     * already.
+     */
+    public synchronized int intern(String symbol) {
+        Integer id = mIds.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        String[] symbols = mSymbols;
+        if (mSize == symbols.length) {
+            String[] grown = new String[2 * symbols.length];
+            System.arraycopy(symbols, 0, grown, 0, mSize);
+            symbols = grown;
+        }
+        symbols[mSize] = symbol;
+        mSymbols = symbols;
+        mIds.put(symbol, mSize);
+        return mSize++;
+    }
+
+    /** @return the id of {@code symbol}, or -1 if it is not in the table. */
+    public synchronized int lookup(String symbol) {
+        Integer id = mIds.get(symbol);
+        return id == null ? -1 : id;
+    }
+
+    public String get(int id) {
+        return mSymbols[id];
+    }
+
+    /** Number of symbols in the table, the ids go from 0 to size - 1. */
+    public int size() {
+        return mSize;
+    }
+}
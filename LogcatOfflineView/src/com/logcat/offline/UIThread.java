@@ -1,9 +1,15 @@
 package com.logcat.offline;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
+import org.eclipse.jface.dialogs.IInputValidator;
+import org.eclipse.jface.dialogs.InputDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.preference.PreferenceStore;
+import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.DND;
@@ -35,8 +41,10 @@ import org.eclipse.swt.widgets.Shell;
 
 import com.android.ddmuilib.ITableFocusListener;
 import com.android.ddmuilib.ImageLoader;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatLoadMonitor;
 import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser;
 import com.logcat.offline.view.ddmuilib.logcat.LogCatPanel;
+import com.logcat.offline.view.ddmuilib.logcat.LogStoreBudget;
 import com.logcat.offline.view.ddmuilib.logcat.OfflinePreferenceStore;
 
 public class UIThread {
@@ -47,6 +55,8 @@ public class UIThread {
 	private static final String PREFERENCE_LOGSASH_H = "logSashLocation.h";
 	private static final String PREFERENCE_LOGSASH_V = "logSashLocation.v";
 	private static final String PREFERENCE_LAST_OPEN_FOLDER = "log.last.openfolder";
+	/** Delay between two updates of the progress of the loads, in milliseconds. */
+	private static final int STATUS_UPDATE_INTERVAL = 500;
 	
 	public static final int PANEL_ID_MAIN = 0;
 	public static final int PANEL_ID_EVENTS = 1;
@@ -66,6 +76,36 @@ public class UIThread {
     private MenuItem mPreviousMenuItem;
     private TableFocusListener mTableListener;
     private MenuItem mNextMenuItem;
+    private MenuItem mCancelLoadMenuItem;
+
+    /** Loads running in the background, only accessed from the UI thread. */
+    private final List<LogCatLoadMonitor> mLoads = new ArrayList<LogCatLoadMonitor>();
+    /** Latest load into each panel, by panel id, only accessed from the UI thread. */
+    private final LogCatLoadMonitor[] mPanelLoads = new LogCatLoadMonitor[PANEL_ID_RADIO + 1];
+    private final Runnable mStatusUpdater = new Runnable() {
+        @Override
+        public void run() {
+            if (mStatusLine.isDisposed()) {
+                return;
+            }
+            StringBuilder status = new StringBuilder();
+            for (Iterator<LogCatLoadMonitor> it = mLoads.iterator(); it.hasNext();) {
+                LogCatLoadMonitor monitor = it.next();
+                if (status.length() > 0) {
+                    status.append("    ");
+                }
+                status.append(monitor.getStatusText());
+                if (monitor.isDone()) {
+                    it.remove();
+                }
+            }
+            mStatusLine.setText(status.toString());
+            mCancelLoadMenuItem.setEnabled(!mLoads.isEmpty());
+            if (!mLoads.isEmpty()) {
+                mDisplay.timerExec(STATUS_UPDATE_INTERVAL, this);
+            }
+        }
+    };
 	
 	private UIThread(){
 	}
@@ -140,6 +180,13 @@ public class UIThread {
         shell.setImage(ImageLoader.getDdmUiLibLoader().loadImage("ddms-128.png", mDisplay));
         shell.setText("LogcatOfflineView");
         mPreferenceStore = OfflinePreferenceStore.getPreferenceStore();
+        LogCatMessageParser.getInstance().loadCustomFormats(mPreferenceStore);
+        LogStoreBudget.load(mPreferenceStore);
+        String eventLogTags = mPreferenceStore.getString(
+                LogCatMessageParser.EVENT_LOG_TAGS_PREFKEY);
+        if (eventLogTags.length() > 0) {
+            LogCatMessageParser.getInstance().loadEventLogTags(eventLogTags);
+        }
         createMenus(shell);
         createWidgets(shell);
         shell.pack();
@@ -182,7 +229,7 @@ public class UIThread {
             @Override
             public void widgetSelected(SelectionEvent e) {
                 String filePath = new FileDialog(shell).open();
-                LogCatMessageParser.getInstance().parseLogFile(filePath, PANEL_ID_MAIN);
+                loadLogFile(filePath, PANEL_ID_MAIN);
             }
         });
         
@@ -193,8 +240,17 @@ public class UIThread {
         item.addSelectionListener(new SelectionAdapter() {
             @Override
             public void widgetSelected(SelectionEvent e) {
-                String filePath = new FileDialog(shell).open();
-                LogCatMessageParser.getInstance().parseDumpstateFile(filePath);
+                final String filePath = new FileDialog(shell).open();
+                if (filePath == null) {
+                    return;
+                }
+                final LogCatLoadMonitor monitor = new LogCatLoadMonitor();
+                loadInBackground(monitor, new Runnable() {
+                    @Override
+                    public void run() {
+                        LogCatMessageParser.getInstance().parseDumpstateFile(filePath, monitor);
+                    }
+                }, PANEL_ID_MAIN, PANEL_ID_EVENTS, PANEL_ID_RADIO);
             }
         });
         
@@ -210,10 +266,15 @@ public class UIThread {
 				if (lastFolder != null) {
 					directoryDialog.setFilterPath(lastFolder);
 				}
-				String folderPath = directoryDialog.open();
+				final String folderPath = directoryDialog.open();
 				if (folderPath != null) {
-					LogCatMessageParser.getInstance()
-							.parseLogFolder(folderPath);
+					final LogCatLoadMonitor monitor = new LogCatLoadMonitor();
+					loadInBackground(monitor, new Runnable() {
+						@Override
+						public void run() {
+							LogCatMessageParser.getInstance().parseLogFolder(folderPath, monitor);
+						}
+					}, PANEL_ID_MAIN, PANEL_ID_EVENTS, PANEL_ID_RADIO);
 					if (lastFolder != null
 							&& folderPath.compareTo(lastFolder) != 0) {
 						mPreferenceStore.setValue(PREFERENCE_LAST_OPEN_FOLDER,
@@ -223,6 +284,59 @@ public class UIThread {
 			}
         });
         
+        item = new MenuItem(fileMenu, SWT.NONE);
+        item.setText("Load &event-log-tags File");
+        item.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                String filePath = new FileDialog(shell).open();
+                if (filePath != null
+                        && LogCatMessageParser.getInstance().loadEventLogTags(filePath)) {
+                    mPreferenceStore.setValue(LogCatMessageParser.EVENT_LOG_TAGS_PREFKEY,
+                            filePath);
+                }
+            }
+        });
+
+        item = new MenuItem(fileMenu, SWT.NONE);
+        item.setText("Set &Memory Budget...");
+        item.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                InputDialog dialog = new InputDialog(shell, "Memory Budget",
+                        "Megabytes of heap the loaded logs may take, beyond which their\n"
+                        + "oldest rows go to a temporary file (0 for half of the heap):",
+                        Integer.toString(mPreferenceStore.getInt(LogStoreBudget.BUDGET_PREFKEY)),
+                        new IInputValidator() {
+                            @Override
+                            public String isValid(String newText) {
+                                try {
+                                    return Integer.parseInt(newText.trim()) >= 0 ? null
+                                            : "The budget cannot be negative";
+                                } catch (NumberFormatException e) {
+                                    return "Enter a number of megabytes";
+                                }
+                            }
+                        });
+                if (dialog.open() == Window.OK) {
+                    mPreferenceStore.setValue(LogStoreBudget.BUDGET_PREFKEY,
+                            Integer.parseInt(dialog.getValue().trim()));
+                }
+            }
+        });
+
+        mCancelLoadMenuItem = new MenuItem(fileMenu, SWT.NONE);
+        mCancelLoadMenuItem.setText("&Cancel Loading");
+        mCancelLoadMenuItem.setEnabled(false);
+        mCancelLoadMenuItem.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                for (LogCatLoadMonitor monitor : mLoads) {
+                    monitor.cancel();
+                }
+            }
+        });
+
         new MenuItem(fileMenu, SWT.SEPARATOR);
         
         item = new MenuItem(fileMenu, SWT.NONE);
@@ -453,6 +567,54 @@ public class UIThread {
         addDropSupport(parent, PANEL_ID_RADIO);
 	}
 
+    private void loadLogFile(final String filePath, final int panelID) {
+        if (filePath == null) {
+            return;
+        }
+        final LogCatLoadMonitor monitor = new LogCatLoadMonitor();
+        loadInBackground(monitor, new Runnable() {
+            @Override
+            public void run() {
+                LogCatMessageParser.getInstance().parseLogFile(filePath, panelID, monitor);
+            }
+        }, panelID);
+    }
+
+    /**
+     * Run a load on a worker thread so that the window stays responsive. Its
+     * progress is shown in the status line until it is done, and it can be
+     * stopped from the File menu. A load still running into one of the panels is
+     * canceled first, so that a panel is only ever filled by one load.
+     * @param panelIDs the panels the load may fill
+     */
+    private void loadInBackground(final LogCatLoadMonitor monitor, final Runnable load,
+            int... panelIDs) {
+        for (int panelID : panelIDs) {
+            if (mPanelLoads[panelID] != null && !mPanelLoads[panelID].isDone()) {
+                mPanelLoads[panelID].cancel();
+            }
+            mPanelLoads[panelID] = monitor;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load.run();
+                } finally {
+                    monitor.done();
+                }
+            }
+        });
+        t.setName("Log loader");
+        t.setDaemon(true);
+
+        mLoads.add(monitor);
+        t.start();
+        if (mLoads.size() == 1) {
+            mStatusUpdater.run();
+        }
+    }
+
     private void addDropSupport(Composite parent, final int panelIdMain) {
         final FileTransfer fileTransfer = FileTransfer.getInstance();
         DropTarget target = new DropTarget(parent, DND.DROP_MOVE | DND.Drop | DND.DROP_DEFAULT);
@@ -470,7 +632,7 @@ public class UIThread {
                 if (fileTransfer.isSupportedType(event.currentDataType)) {
                     String[] files = (String[]) event.data;
                     for (int i = 0; i < files.length; i++) {
-                        LogCatMessageParser.getInstance().parseLogFile(files[i], panelIdMain);
+                        loadLogFile(files[i], panelIdMain);
                         break;
                     }
                 }
@@ -0,0 +1,123 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream ahead on a thread of its own, so that decompressing a file
+ * overlaps with parsing it. The blocks read are handed over through a bounded
+ * queue, which keeps the reading thread at most {@link #QUEUE_BLOCKS} blocks ahead.
+ */
+final class AsyncInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final int QUEUE_BLOCKS = 8;
+    /** Queued after the last block of the stream. */
+    private static final byte[] END = new byte[0];
+
+    private final InputStream mSource;
+    private final BlockingQueue<byte[]> mBlocks = new ArrayBlockingQueue<byte[]>(QUEUE_BLOCKS);
+    private final Thread mThread;
+    private volatile IOException mError;
+    private volatile boolean mClosed;
+
+    private byte[] mBlock;
+    private int mPosition;
+
+    AsyncInputStream(InputStream source, String name) {
+        mSource = source;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pump();
+            }
+        });
+        mThread.setName("Log reader " + name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    private void pump() {
+        try {
+            while (!mClosed) {
+                byte[] block = new byte[BLOCK_SIZE];
+                int length = 0;
+                int count = 0;
+                while (length < BLOCK_SIZE && (count = mSource.read(block, length, BLOCK_SIZE - length)) >= 0) {
+                    length += count;
+                }
+                if (length > 0) {
+                    if (length < BLOCK_SIZE) {
+                        byte[] last = new byte[length];
+                        System.arraycopy(block, 0, last, 0, length);
+                        block = last;
+                    }
+                    mBlocks.put(block);
+                }
+                if (count < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            mError = e;
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            try {
+                mSource.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (!mClosed) {
+                try {
+                    mBlocks.put(END);
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (mBlock == null || mPosition == mBlock.length) {
+            if (mBlock == END) {
+                return -1;
+            }
+            try {
+                mBlock = mBlocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + mThread.getName());
+            }
+            mPosition = 0;
+            if (mBlock == END) {
+                if (mError != null) {
+                    throw mError;
+                }
+                return -1;
+            }
+        }
+        int count = Math.min(len, mBlock.length - mPosition);
+        System.arraycopy(mBlock, mPosition, b, off, count);
+        mPosition += count;
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mThread.interrupt();
+        mBlocks.clear();
+    }
+}
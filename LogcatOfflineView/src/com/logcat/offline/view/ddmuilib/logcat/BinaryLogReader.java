@@ -0,0 +1,392 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatEventValues;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * Reads the entries of a binary log, as written by {@code logcat -B}. Each entry is a
+ * {@code logger_entry} header followed by its payload, all fields little endian:
+ * <pre>
+ * v1: u16 len, u16 pad,      i32 pid, i32 tid, i32 sec, i32 nsec                 (20 bytes)
+ * v2: u16 len, u16 hdr_size, i32 pid, i32 tid, i32 sec, i32 nsec, u32 euid       (24 bytes)
+ * v3: u16 len, u16 hdr_size, i32 pid, i32 tid, i32 sec, i32 nsec, u32 lid        (24 bytes)
+ * v4: u16 len, u16 hdr_size, i32 pid, u32 tid, u32 sec, u32 nsec, u32 lid, u32 uid (28 bytes)
+ * </pre>
+ * The payload of a text entry is its priority, then its tag and its message, both
+ * terminated by a nul. The payload of an event is the number of its tag, followed
+ * by a typed value, see {@link #appendEventValue}. The values of an event are also
+ * kept as its {@link LogCatEventValues}, each element of
+ * a list being one value.
+ * <p/>
+ * Fields are decoded straight from the bytes of the entry: the time of a message is
+ * exact, it is not read back from text.
+ */
+final class BinaryLogReader implements Closeable {
+    private static final int HEADER_V1_SIZE = 20;
+    private static final int HEADER_V2_SIZE = 24;
+    private static final int HEADER_V4_SIZE = 28;
+    /** Largest payload logd accepts, with some margin for older versions. */
+    private static final int MAX_PAYLOAD = 5 * 1024;
+
+    /** Log ids of the buffers written in the binary event format. */
+    private static final int LOG_ID_EVENTS = 2;
+    private static final int LOG_ID_STATS = 5;
+    private static final int LOG_ID_SECURITY = 6;
+    private static final int LOG_ID_MAX = 8;
+
+    private static final int EVENT_TYPE_INT = 0;
+    private static final int EVENT_TYPE_LONG = 1;
+    private static final int EVENT_TYPE_STRING = 2;
+    private static final int EVENT_TYPE_LIST = 3;
+    private static final int EVENT_TYPE_FLOAT = 4;
+
+    /** Number of entries checked by {@link #isBinaryLog(File)}. */
+    private static final int SNIFF_ENTRIES = 4;
+
+    private final LogFileOpener.CountedStream mStream;
+    private final InputStream mInput;
+    private final ParseState mState;
+    private final EventLogTags mTags;
+    /** Whether entries that do not tell their buffer for sure are events. */
+    private final boolean mEvents;
+
+    private final byte[] mHeader = new byte[HEADER_V4_SIZE];
+    private byte[] mPayload = new byte[MAX_PAYLOAD];
+    private final StringBuilder mText = new StringBuilder();
+    private final EventDecoder.ValuesBuilder mValues = new EventDecoder.ValuesBuilder();
+
+    /** Second of {@link #mSecondText}, formatted in the local time zone. */
+    private long mSecond = Long.MIN_VALUE;
+    private String mSecondText;
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    /**
+     * @param tags names of the event tags and of their values
+     * @param events whether the entries of a v1, v2 or v3 log, which do not tell their
+     *            buffer for sure, are events
+     */
+    BinaryLogReader(File file, ParseState state, EventLogTags tags, boolean events)
+            throws IOException {
+        mStream = LogFileOpener.openCounted(file);
+        mInput = LogFileOpener.isCompressed(file)
+                ? new AsyncInputStream(mStream.mInput, mStream.mName)
+                : new BufferedInputStream(mStream.mInput, 64 * 1024);
+        mState = state;
+        mTags = tags;
+        mEvents = events;
+    }
+
+    /**
+     * Whether a file, once decompressed, starts with a chain of well formed
+     * {@code logger_entry} headers. Text logs never do: their first bytes, read as
+     * a payload length, are far larger than a log entry can be.
+     */
+    static boolean isBinaryLog(File file) throws IOException {
+        InputStream in = LogFileOpener.openStream(file);
+        try {
+            byte[] head = new byte[SNIFF_ENTRIES * (HEADER_V4_SIZE + MAX_PAYLOAD)];
+            int length = 0;
+            int count;
+            while (length < head.length
+                    && (count = in.read(head, length, head.length - length)) > 0) {
+                length += count;
+            }
+            int p = 0;
+            int entries = 0;
+            while (entries < SNIFF_ENTRIES && p + HEADER_V1_SIZE <= length) {
+                int headerSize = getHeaderSize(head, p);
+                int payload = u16(head, p);
+                long nsec = i32(head, p + 16) & 0xffffffffL;
+                if (headerSize < 0 || payload == 0 || payload > MAX_PAYLOAD
+                        || i32(head, p + 4) < 0 || nsec >= 1000000000L) {
+                    return false;
+                }
+                p += headerSize + payload;
+                entries++;
+            }
+            return entries > 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return the size of the header at {@code p}, or -1 if it is not valid. */
+    private static int getHeaderSize(byte[] b, int p) {
+        int size = u16(b, p + 2);
+        if (size == 0) {
+            // v1, the field is padding
+            return HEADER_V1_SIZE;
+        }
+        return size == HEADER_V2_SIZE || size == HEADER_V4_SIZE ? size : -1;
+    }
+
+    /**
+     * Read the next entry.
+     * @return its message, or null at the end of the log.
+     * @throws IOException if the log can not be read or is corrupt.
+     */
+    LogCatMessage next() throws IOException {
+        while (true) {
+            if (!readFully(mHeader, 0, 4, true)) {
+                return null;
+            }
+            int payloadSize = u16(mHeader, 0);
+            int headerSize = getHeaderSize(mHeader, 0);
+            if (headerSize < 0 || payloadSize > MAX_PAYLOAD) {
+                throw new IOException("Corrupt binary log entry at offset "
+                        + (mStream.mCounter.getCount() - 4) + " of " + mStream.mName);
+            }
+            readFully(mHeader, 4, headerSize - 4, false);
+            if (payloadSize > mPayload.length) {
+                mPayload = new byte[payloadSize];
+            }
+            readFully(mPayload, 0, payloadSize, false);
+
+            int pid = i32(mHeader, 4);
+            int tid = i32(mHeader, 8);
+            long sec = i32(mHeader, 12) & 0xffffffffL;
+            int nsec = i32(mHeader, 16);
+            boolean events = mEvents;
+            if (headerSize == HEADER_V4_SIZE) {
+                // v2 and v3 headers have the same size, but v2 has the euid there
+                // instead of the log id, so only v4 tells the buffer for sure
+                int lid = i32(mHeader, 20);
+                if (lid >= 0 && lid < LOG_ID_MAX) {
+                    events = lid == LOG_ID_EVENTS || lid == LOG_ID_STATS
+                            || lid == LOG_ID_SECURITY;
+                }
+            }
+            LogCatMessage m = events ? decodeEvent(pid, tid, sec, nsec, payloadSize)
+                    : decodeText(pid, tid, sec, nsec, payloadSize);
+            if (m != null) {
+                return m;
+            }
+        }
+    }
+
+    /** How far into the file, or the zip entry, the log has been read. */
+    long getInputPosition() {
+        return mStream.mCounter.getCount();
+    }
+
+    long getInputSize() {
+        return mStream.mSize;
+    }
+
+    private LogCatMessage decodeText(int pid, int tid, long sec, int nsec, int size) {
+        if (size < 2) {
+            return null;
+        }
+        byte[] b = mPayload;
+        int priority = b[0];
+        LogLevel level;
+        if (priority <= 2) {
+            level = LogLevel.VERBOSE;
+        } else if (priority >= 7) {
+            // fatal, shown as assert like the text formats do
+            level = LogLevel.ASSERT;
+        } else {
+            level = LogLevel.getByLetter("  VDIWE".charAt(priority));
+        }
+        int tagEnd = indexOfNul(b, 1, size);
+        int msgStart = Math.min(tagEnd + 1, size);
+        int msgEnd = indexOfNul(b, msgStart, size);
+        // logcat drops the trailing new lines of a message
+        while (msgEnd > msgStart && (b[msgEnd - 1] == '\n' || b[msgEnd - 1] == '\r')) {
+            msgEnd--;
+        }
+        String msg = new String(b, msgStart, msgEnd - msgStart, MappedLineReader.UTF8);
+        LogCatMessage m = newMessage(level, pid, tid, mState.tags.intern(b, 1, tagEnd), sec,
+                nsec, msg);
+        int newLine = msg.indexOf('\n');
+        if (newLine < 0) {
+            return m;
+        }
+        // a message of several lines, logcat prints each of them as a message
+        int[] lineStarts = new int[8];
+        int lines = 0;
+        while (newLine >= 0) {
+            if (lines == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, 2 * lines);
+            }
+            lineStarts[lines++] = newLine + 1;
+            newLine = msg.indexOf('\n', newLine + 1);
+        }
+        return m.withLines(msg, Arrays.copyOf(lineStarts, lines));
+    }
+
+    private LogCatMessage decodeEvent(int pid, int tid, long sec, int nsec, int size) {
+        if (size < 4) {
+            return null;
+        }
+        int tag = i32(mPayload, 0);
+        EventLogTags.Tag t = mTags.getTag(tag);
+        int tagId = mState.tags.intern(t != null ? t.mName : Integer.toString(tag));
+        mText.setLength(0);
+        mValues.reset();
+        if (size > 4) {
+            appendEventValue(4, size, 0);
+        }
+        LogCatMessage m = newMessage(LogLevel.INFO, pid, tid, tagId, sec, nsec,
+                mText.toString());
+        if (mValues.size() == 0) {
+            return m;
+        }
+        return m.withEventValues(mValues.build(t != null ? t.mFieldNames : null));
+    }
+
+    /**
+     * Append the value at {@code p} to {@link #mText} the way logcat prints it: lists
+     * as {@code "[a,b,c]"}, strings as they are. The value of an event, or each
+     * element of it if it is a list, is added to {@link #mValues} too.
+     * @param depth 0 for the value of the event, 1 for the elements of its list
+     * @return the offset following the value, or {@code end} if it is truncated.
+     */
+    private int appendEventValue(int p, int end, int depth) {
+        byte[] b = mPayload;
+        if (p >= end) {
+            return end;
+        }
+        int type = b[p++];
+        boolean value = depth == 1 || (depth == 0 && type != EVENT_TYPE_LIST);
+        switch (type) {
+        case EVENT_TYPE_INT: {
+            if (p + 4 > end) {
+                return end;
+            }
+            int v = i32(b, p);
+            mText.append(v);
+            if (value) {
+                mValues.addNumber(LogCatEventValues.TYPE_INT, v);
+            }
+            return p + 4;
+        }
+        case EVENT_TYPE_LONG: {
+            if (p + 8 > end) {
+                return end;
+            }
+            long v = (i32(b, p) & 0xffffffffL) | ((long) i32(b, p + 4) << 32);
+            mText.append(v);
+            if (value) {
+                mValues.addNumber(LogCatEventValues.TYPE_LONG, v);
+            }
+            return p + 8;
+        }
+        case EVENT_TYPE_FLOAT: {
+            if (p + 4 > end) {
+                return end;
+            }
+            float v = Float.intBitsToFloat(i32(b, p));
+            mText.append(v);
+            if (value) {
+                mValues.addFloat(v);
+            }
+            return p + 4;
+        }
+        case EVENT_TYPE_STRING: {
+            if (p + 4 > end) {
+                return end;
+            }
+            int length = Math.min(i32(b, p), end - p - 4);
+            String v = new String(b, p + 4, Math.max(length, 0), MappedLineReader.UTF8);
+            mText.append(v);
+            if (value) {
+                mValues.addString(v);
+            }
+            return p + 4 + Math.max(length, 0);
+        }
+        case EVENT_TYPE_LIST: {
+            if (p >= end) {
+                return end;
+            }
+            int count = b[p++] & 0xff;
+            int start = mText.length();
+            mText.append('[');
+            for (int i = 0; i < count && p < end; i++) {
+                if (i > 0) {
+                    mText.append(',');
+                }
+                p = appendEventValue(p, end, depth + 1);
+            }
+            mText.append(']');
+            if (value) {
+                // a list in a list is one value, kept as its text
+                mValues.addString(mText.substring(start));
+            }
+            return p;
+        }
+        default:
+            return end;
+        }
+    }
+
+    private LogCatMessage newMessage(LogLevel level, int pid, int tid, int tag, long sec,
+            int nsec, String msg) {
+        return new LogCatMessage(level, mState.symbols, LogCatMessage.toId(pid),
+                LogCatMessage.toId(tid), tag,
+                formatTime(sec, nsec), sec * 1000 + nsec / 1000000, msg);
+    }
+
+    /** {@code "MM-dd HH:mm:ss.nnnnnnnnn"} in the local time zone, like {@code logcat -v nsec}. */
+    private String formatTime(long sec, int nsec) {
+        if (sec != mSecond) {
+            mCalendar.setTimeInMillis(sec * 1000);
+            mSecondText = String.format("%1$tm-%1$td %1$tH:%1$tM:%1$tS.", mCalendar);
+            mSecond = sec;
+        }
+        StringBuilder sb = new StringBuilder(mSecondText);
+        String fraction = Integer.toString(nsec);
+        for (int i = fraction.length(); i < 9; i++) {
+            sb.append('0');
+        }
+        return sb.append(fraction).toString();
+    }
+
+    private boolean readFully(byte[] b, int off, int len, boolean eofAllowed)
+            throws IOException {
+        int read = 0;
+        while (read < len) {
+            int count = mInput.read(b, off + read, len - read);
+            if (count < 0) {
+                if (read == 0 && eofAllowed) {
+                    return false;
+                }
+                throw new EOFException("Truncated binary log entry in " + mStream.mName);
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static int indexOfNul(byte[] b, int p, int end) {
+        while (p < end && b[p] != 0) {
+            p++;
+        }
+        return p;
+    }
+
+    private static int u16(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8;
+    }
+
+    private static int i32(byte[] b, int p) {
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16
+                | (b[p + 3] & 0xff) << 24;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream. The count may be read from any thread.
+ */
+public final class CountingInputStream extends FilterInputStream {
+    private volatile long mCount;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            mCount += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long count = super.skip(n);
+        mCount += count;
+        return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
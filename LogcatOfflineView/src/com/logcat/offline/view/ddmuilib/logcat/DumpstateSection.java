@@ -0,0 +1,102 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@code "------ NAME (command) ------"} section of a dumpstate file, such as
+ * {@code MEMORY INFO} or {@code SYSTEM LOG}. Only its position is recorded while the
+ * file is parsed, its content is read when {@link #read()} is called.
+ */
+public final class DumpstateSection {
+    private final File mFile;
+    private final String mName;
+    private final String mCommand;
+    private long mStart = -1;
+    private long mEnd = -1;
+
+    DumpstateSection(File file, String name, String command) {
+        mFile = file;
+        mName = name;
+        mCommand = command;
+    }
+
+    void setStart(long start) {
+        mStart = start;
+    }
+
+    void setEnd(long end) {
+        if (mStart < 0) {
+            // nothing follows the header
+            mStart = end;
+        }
+        mEnd = end;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /** Name of the section, such as {@code "MEMORY INFO"}. */
+    public String getName() {
+        return mName;
+    }
+
+    /** Command whose output the section is, such as {@code "/proc/meminfo"}, or null. */
+    public String getCommand() {
+        return mCommand;
+    }
+
+    /**
+     * Offset in the decompressed file of the first line following the header, or -1
+     * if the header is the last line of the file.
+     */
+    public long getStart() {
+        return mStart;
+    }
+
+    /** Offset in the decompressed file where the section ends, or -1 at the end of the file. */
+    public long getEnd() {
+        return mEnd;
+    }
+
+    /** Read the content of the section from the file. */
+    public String read() throws IOException {
+        if (mStart < 0) {
+            return "";
+        }
+        InputStream in = LogFileOpener.openStream(mFile);
+        try {
+            long skipped = 0;
+            while (skipped < mStart) {
+                long count = in.skip(mStart - skipped);
+                if (count <= 0) {
+                    if (in.read() < 0) {
+                        return "";
+                    }
+                    count = 1;
+                }
+                skipped += count;
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            long left = mEnd < 0 ? Long.MAX_VALUE : mEnd - mStart;
+            int count;
+            while (left > 0
+                    && (count = in.read(buffer, 0, (int) Math.min(buffer.length, left))) > 0) {
+                content.write(buffer, 0, count);
+                left -= count;
+            }
+            return new String(content.toByteArray(), MappedLineReader.UTF8);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mCommand == null ? mName : mName + " (" + mCommand + ")";
+    }
+}
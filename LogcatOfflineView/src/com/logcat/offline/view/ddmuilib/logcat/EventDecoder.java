@@ -0,0 +1,225 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.Arrays;
+
+import com.android.ddmuilib.logcat.LogCatEventValues;
+import com.android.ddmuilib.logcat.LogCatMessage;
+
+/**
+ * Decodes the values of the messages of the events buffer into
+ * {@link LogCatEventValues}, named after the fields that an {@link EventLogTags}
+ * file gives to their tag. The text logs print the values of an event the way
+ * {@code logcat -b events} does, {@code "[a,b,c]"} for a list and the value alone
+ * otherwise. Values that the file does not type are typed after their text.
+ * <p/>
+ * A decoder keeps no state of its own and may be shared by several parser threads.
+ */
+final class EventDecoder {
+    private final EventLogTags mTags;
+
+    /** @param tags the tags of the log, or null to use the defaults. */
+    EventDecoder(EventLogTags tags) {
+        mTags = tags != null ? tags : EventLogTags.getDefault();
+    }
+
+    EventLogTags getTags() {
+        return mTags;
+    }
+
+    /**
+     * @return a copy of {@code m} with the values of its text, or {@code m} itself if
+     * it holds none.
+     */
+    LogCatMessage decode(LogCatMessage m) {
+        String text = m.getMessage();
+        if (text.length() == 0 || m.getLineCount() > 1) {
+            return m;
+        }
+        EventLogTags.Tag tag = mTags.getTag(m.getTag());
+        String[] values;
+        if (text.charAt(0) == '[' && text.charAt(text.length() - 1) == ']') {
+            values = splitList(text.substring(1, text.length() - 1));
+            if (tag != null && tag.mFieldTypes != null) {
+                values = fitToFields(values, tag.mFieldTypes);
+            }
+        } else {
+            values = new String[] { text };
+        }
+        ValuesBuilder builder = new ValuesBuilder();
+        for (int i = 0; i < values.length; i++) {
+            byte type = LogCatEventValues.TYPE_STRING;
+            if (tag != null && tag.mFieldTypes != null && i < tag.mFieldTypes.length) {
+                type = tag.mFieldTypes[i];
+            }
+            builder.addText(values[i], type, tag == null || tag.mFieldTypes == null);
+        }
+        return m.withEventValues(builder.build(tag != null ? tag.mFieldNames : null));
+    }
+
+    /** Split a list at its commas, leaving the lists it holds whole. */
+    private static String[] splitList(String list) {
+        String[] values = new String[4];
+        int count = 0;
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= list.length(); i++) {
+            char c = i < list.length() ? list.charAt(i) : ',';
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == ',' && depth <= 0) {
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, 2 * count);
+                }
+                values[count++] = list.substring(start, i);
+                start = i + 1;
+            }
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    /**
+     * A string value that holds commas splits into more values than the tag has
+     * fields. Give the extra ones back to the last string field, the fields before it
+     * and after it taking one value each.
+     */
+    private static String[] fitToFields(String[] values, byte[] types) {
+        if (values.length <= types.length) {
+            return values;
+        }
+        int field = types.length - 1;
+        while (field >= 0 && types[field] != LogCatEventValues.TYPE_STRING) {
+            field--;
+        }
+        if (field < 0) {
+            return values;
+        }
+        int extra = values.length - types.length;
+        String[] fitted = new String[types.length];
+        System.arraycopy(values, 0, fitted, 0, field);
+        StringBuilder sb = new StringBuilder(values[field]);
+        for (int i = 1; i <= extra; i++) {
+            sb.append(',').append(values[field + i]);
+        }
+        fitted[field] = sb.toString();
+        System.arraycopy(values, field + extra + 1, fitted, field + 1,
+                types.length - field - 1);
+        return fitted;
+    }
+
+    /** Collects the values of one event, see {@link LogCatEventValues}. */
+    static final class ValuesBuilder {
+        private byte[] mTypes = new byte[8];
+        private long[] mNumbers = new long[8];
+        private String[] mStrings;
+        private int mCount;
+
+        int size() {
+            return mCount;
+        }
+
+        void reset() {
+            mCount = 0;
+            mStrings = null;
+        }
+
+        void addNumber(byte type, long value) {
+            grow();
+            mTypes[mCount] = type;
+            mNumbers[mCount++] = value;
+        }
+
+        void addFloat(double value) {
+            addNumber(LogCatEventValues.TYPE_FLOAT, Double.doubleToLongBits(value));
+        }
+
+        void addString(String value) {
+            grow();
+            if (mStrings == null) {
+                mStrings = new String[mTypes.length];
+            }
+            mStrings[mCount] = value;
+            mTypes[mCount] = LogCatEventValues.TYPE_STRING;
+            mNumbers[mCount++] = 0;
+        }
+
+        /**
+         * Add a value read from text, as a {@code type} if it reads as one, else as a
+         * string. If {@code guess}, the type is not known and is told by the text.
+         */
+        void addText(String text, byte type, boolean guess) {
+            if (guess || type == LogCatEventValues.TYPE_INT
+                    || type == LogCatEventValues.TYPE_LONG) {
+                if (isInteger(text)) {
+                    try {
+                        long value = Long.parseLong(text);
+                        addNumber(value == (int) value ? LogCatEventValues.TYPE_INT
+                                : LogCatEventValues.TYPE_LONG, value);
+                        return;
+                    } catch (NumberFormatException e) {
+                        // too long for a long, kept as text
+                    }
+                }
+            }
+            if (guess ? isDecimal(text) : type == LogCatEventValues.TYPE_FLOAT) {
+                try {
+                    addFloat(Double.parseDouble(text));
+                    return;
+                } catch (NumberFormatException e) {
+                    // kept as text
+                }
+            }
+            addString(text);
+        }
+
+        private void grow() {
+            if (mCount == mTypes.length) {
+                mTypes = Arrays.copyOf(mTypes, 2 * mCount);
+                mNumbers = Arrays.copyOf(mNumbers, 2 * mCount);
+                if (mStrings != null) {
+                    mStrings = Arrays.copyOf(mStrings, 2 * mCount);
+                }
+            }
+        }
+
+        LogCatEventValues build(String[] names) {
+            return new LogCatEventValues(names, Arrays.copyOf(mTypes, mCount),
+                    Arrays.copyOf(mNumbers, mCount),
+                    mStrings == null ? null : Arrays.copyOf(mStrings, mCount));
+        }
+
+        /** An optional '-' followed by 1 to 19 digits. */
+        private static boolean isInteger(String s) {
+            int i = s.startsWith("-") ? 1 : 0;
+            if (s.length() == i || s.length() - i > 19) {
+                return false;
+            }
+            for (; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Digits with a single '.', as floats are printed. */
+        private static boolean isDecimal(String s) {
+            int i = s.startsWith("-") ? 1 : 0;
+            int dots = 0;
+            int digits = 0;
+            for (; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '.') {
+                    dots++;
+                } else if (c >= '0' && c <= '9') {
+                    digits++;
+                } else {
+                    return false;
+                }
+            }
+            return dots == 1 && digits > 0;
+        }
+    }
+}
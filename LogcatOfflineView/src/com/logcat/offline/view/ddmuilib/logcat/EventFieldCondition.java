@@ -0,0 +1,127 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.android.ddmuilib.logcat.LogCatEventValues;
+
+/**
+ * A condition on a value of the messages of the events buffer, such as
+ * {@code time>100} for the time a {@code dvm_lock_sample} waited for its lock. It is
+ * checked against the {@link LogCatEventValues} decoded when the log was parsed, the
+ * text of the message is not looked at.
+ * <p/>
+ * A value is named as its tag describes it, ignoring case and with '_' for a space,
+ * or by its position, from 0. The operators are {@code = != < <= > >=}. Numbers are
+ * compared as numbers, other values as text ignoring case; a text value is never
+ * less or greater than a number. A message that has no such value does not match.
+ */
+final class EventFieldCondition {
+    private static final Pattern sConditionPattern =
+            Pattern.compile("([^<>=!]+)(<=|>=|!=|<|>|=)(.*)"); //$NON-NLS-1$
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+    private static final String[] OPERATORS = { "=", "!=", "<", "<=", ">", ">=" };
+
+    private final String mName;
+    /** Position given instead of a name, or -1. */
+    private final int mPosition;
+    private final int mOperator;
+    private final String mValue;
+    private final boolean mNumeric;
+    private final double mNumber;
+
+    /** Names of the values last matched, and the index of the value among them. */
+    private String[] mNames;
+    private int mIndex = -1;
+
+    private EventFieldCondition(String name, int operator, String value) {
+        mName = name;
+        mPosition = name.matches("\\d{1,9}") ? Integer.parseInt(name) : -1;
+        mOperator = operator;
+        mValue = value;
+        double number = 0;
+        boolean numeric = false;
+        try {
+            number = Double.parseDouble(value);
+            numeric = true;
+        } catch (NumberFormatException e) {
+            // compared as text
+        }
+        mNumber = number;
+        mNumeric = numeric;
+    }
+
+    /**
+     * @param condition "name", an operator and a value, such as {@code wait_ms>100}
+     * @return the condition, or null if it is not well formed.
+     */
+    static EventFieldCondition parse(String condition) {
+        Matcher matcher = sConditionPattern.matcher(condition.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+        String name = matcher.group(1).trim();
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (OPERATORS[i].equals(matcher.group(2))) {
+                return new EventFieldCondition(name, i, matcher.group(3).trim());
+            }
+        }
+        return null;
+    }
+
+    /** @param values the values of an event, or null for other messages */
+    boolean matches(LogCatEventValues values) {
+        if (values == null) {
+            return false;
+        }
+        int index = indexOf(values);
+        if (index < 0 || index >= values.size()) {
+            return false;
+        }
+        int cmp;
+        if (mNumeric && values.isNumber(index)) {
+            cmp = Double.compare(values.getDouble(index), mNumber);
+        } else if (mNumeric && mOperator >= LT) {
+            // text is not ordered against a number
+            return false;
+        } else {
+            cmp = values.getString(index).compareToIgnoreCase(mValue);
+        }
+        switch (mOperator) {
+        case EQ:
+            return cmp == 0;
+        case NE:
+            return cmp != 0;
+        case LT:
+            return cmp < 0;
+        case LE:
+            return cmp <= 0;
+        case GT:
+            return cmp > 0;
+        default:
+            return cmp >= 0;
+        }
+    }
+
+    /** The index of the value, looked up once for all the events of a tag. */
+    private int indexOf(LogCatEventValues values) {
+        String[] names = values.getNames();
+        if (names == null) {
+            return mPosition;
+        }
+        if (names != mNames) {
+            mNames = names;
+            mIndex = values.indexOf(mName);
+            if (mIndex < 0) {
+                mIndex = mPosition;
+            }
+        }
+        return mIndex;
+    }
+}
@@ -0,0 +1,155 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.android.ddmuilib.logcat.LogCatEventValues;
+
+/**
+ * The names of the tags of the events buffer, as listed by an
+ * {@code /system/etc/event-log-tags} file of the device the log comes from. Each
+ * line of the file holds a tag number, its name and optionally the description of
+ * the values of the event, each with its name, its type and its unit:
+ * <pre>
+ * 2722 battery_level (level|1|6),(voltage|1|1),(temperature|1|1)
+ * </pre>
+ */
+public final class EventLogTags {
+    /** Name of the file on the device, it is looked for next to the logs too. */
+    public static final String FILE_NAME = "event-log-tags";
+
+    /**
+     * Tags of the framework looked at most often, described when no file is loaded.
+     * Their values have been the same since Android 4.0.
+     */
+    private static final String[] DEFAULT_TAGS = {
+        "2722 battery_level (level|1|6),(voltage|1|1),(temperature|1|1)",
+        "20003 dvm_lock_sample (process|3),(main|1|5),(thread|3),(time|1|3),(file|3),"
+                + "(line|1|5),(ownerfile|3),(ownerline|1|5),(sample_percent|1|6)",
+        "30008 am_anr (User|1|5),(pid|1|5),(Package Name|3),(Flags|1|5),(reason|3)",
+        "30009 am_activity_launch_time (User|1|5),(Token|1|5),(Component Name|3),(time|2|3)",
+        "30010 am_proc_bound (User|1|5),(PID|1|5),(Process Name|3)",
+        "30011 am_proc_died (User|1|5),(PID|1|5),(Process Name|3)",
+        "30014 am_proc_start (User|1|5),(PID|1|5),(UID|1|5),(Process Name|3),(Type|3),"
+                + "(Component|3)",
+        "30039 am_crash (User|1|5),(PID|1|5),(Process Name|3),(Flags|1|5),(Exception|3),"
+                + "(Message|3),(File|3),(Line|1|5)",
+        "30040 am_wtf (User|1|5),(PID|1|5),(Process Name|3),(Flags|1|5),(Tag|3),(Message|3)",
+    };
+
+    private static EventLogTags sDefault;
+
+    /** What the file tells about one tag. */
+    static final class Tag {
+        final String mName;
+        /** Names of the values, or null if the file does not describe them. */
+        final String[] mFieldNames;
+        /** Type of each value, one of the TYPE_ constants of {@link LogCatEventValues}. */
+        final byte[] mFieldTypes;
+
+        Tag(String name, String[] fieldNames, byte[] fieldTypes) {
+            mName = name;
+            mFieldNames = fieldNames;
+            mFieldTypes = fieldTypes;
+        }
+    }
+
+    private final Map<Integer, Tag> mTags = new HashMap<Integer, Tag>();
+    private final Map<String, Tag> mTagsByName = new HashMap<String, Tag>();
+
+    private EventLogTags() {
+    }
+
+    /** Read an event-log-tags file. Lines that can not be parsed are skipped. */
+    public static EventLogTags load(File file) throws IOException {
+        EventLogTags tags = new EventLogTags();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), MappedLineReader.UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tags.parseLine(line.trim());
+            }
+        } finally {
+            reader.close();
+        }
+        return tags;
+    }
+
+    /** The tags described without a file, see {@link #DEFAULT_TAGS}. */
+    static synchronized EventLogTags getDefault() {
+        if (sDefault == null) {
+            sDefault = new EventLogTags();
+            for (String line : DEFAULT_TAGS) {
+                sDefault.parseLine(line);
+            }
+        }
+        return sDefault;
+    }
+
+    private void parseLine(String line) {
+        if (line.length() == 0 || line.startsWith("#")) {
+            return;
+        }
+        String[] parts = line.split("\\s+", 3);
+        if (parts.length < 2) {
+            return;
+        }
+        int number;
+        try {
+            number = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        String[] names = null;
+        byte[] types = null;
+        if (parts.length == 3) {
+            // "(name|type|unit),(name|type)..."
+            String[] fields = parts[2].split("\\)\\s*,\\s*\\(");
+            names = new String[fields.length];
+            types = new byte[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                String[] field = fields[i].replace("(", "").replace(")", "").split("\\|");
+                names[i] = field[0].trim();
+                types[i] = field.length > 1 ? getType(field[1].trim()) : LogCatEventValues.TYPE_STRING;
+            }
+        }
+        Tag tag = new Tag(parts[1], names, types);
+        mTags.put(number, tag);
+        mTagsByName.put(tag.mName, tag);
+    }
+
+    /** Map the type numbers of event-log-tags files to the types of the values. */
+    private static byte getType(String type) {
+        if (type.equals("1")) {
+            return LogCatEventValues.TYPE_INT;
+        } else if (type.equals("2")) {
+            return LogCatEventValues.TYPE_LONG;
+        } else if (type.equals("5")) {
+            return LogCatEventValues.TYPE_FLOAT;
+        }
+        // strings, and lists which are shown as text
+        return LogCatEventValues.TYPE_STRING;
+    }
+
+    /** @return the name of an event tag, or null if the tag is not listed. */
+    public String getName(int tag) {
+        Tag t = mTags.get(tag);
+        return t == null ? null : t.mName;
+    }
+
+    /** @return the description of a tag, or null if the tag is not listed. */
+    Tag getTag(int tag) {
+        return mTags.get(tag);
+    }
+
+    /** @return the description of the tag of the given name, or null if it is not listed. */
+    Tag getTag(String name) {
+        return mTagsByName.get(name);
+    }
+}
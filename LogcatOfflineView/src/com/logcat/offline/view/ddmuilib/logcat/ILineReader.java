@@ -0,0 +1,47 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the lines of a log one at a time. Like {@link java.io.BufferedReader#readLine()},
+ * a line ends with '\n', '\r' or "\r\n", and leading and trailing white spaces are
+ * skipped the same way {@link String#trim()} would.
+ * <p/>
+ * The bytes of the current line are exposed through {@link #getBuffer()},
+ * {@link #getLineStart()} and {@link #getLineEnd()}, so that callers only decode the
+ * parts of a line they need. They are only valid until the next call to
+ * {@link #nextLine()}.
+ */
+public interface ILineReader extends Closeable {
+    /**
+     * Advance to the next line.
+     * @return false once the end of the input has been reached.
+     */
+    boolean nextLine() throws IOException;
+
+    /** Bytes of the current line, from {@link #getLineStart()} to {@link #getLineEnd()}. */
+    byte[] getBuffer();
+
+    int getLineStart();
+
+    int getLineEnd();
+
+    boolean isLineEmpty();
+
+    /** Decode the current, trimmed line. */
+    String getLine();
+
+    /** Offset of the first byte of the current line in the log. */
+    long getLineOffset();
+
+    /**
+     * Number of bytes of the input consumed so far. For a compressed file this counts
+     * the bytes that were read from the file, so it can be compared with
+     * {@link #getInputSize()} to tell the progress.
+     */
+    long getInputPosition();
+
+    /** Size of the input, or -1 if it is not known. */
+    long getInputSize();
+}
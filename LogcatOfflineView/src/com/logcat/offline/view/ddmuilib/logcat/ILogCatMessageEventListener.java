@@ -25,8 +25,22 @@ import com.android.ddmuilib.logcat.LogCatMessage;
  * Listeners interested in log cat messages should implement this interface.
  */
 public interface ILogCatMessageEventListener {
-    /** Called on reception of logcat messages.
+    /** Called on reception of logcat messages. Files are loaded in the background,
+     * so this is usually called from a worker thread, not from the UI thread.
      * @param receivedMessages list of messages received
+     * @param load the load the messages belong to
      */
-    void messageReceived(List<LogCatMessage> receivedMessages, int panelID, File Path);
+    void messageReceived(List<LogCatMessage> receivedMessages, int panelID, File Path,
+            LogCatLoadMonitor load);
+
+    /** Called when more messages of the file delivered by the call to
+     * {@link #messageReceived(List, int, File, LogCatLoadMonitor)} for this panel and
+     * this load have been parsed. Large files are delivered in several batches, so
+     * that their first messages can be shown while the rest of the file is still
+     * being parsed, and a followed file delivers the lines appended to it.
+     * @param appendedMessages list of messages following the ones already received
+     * @param load the load the messages belong to
+     */
+    void messageAppended(List<LogCatMessage> appendedMessages, int panelID, File Path,
+            LogCatLoadMonitor load);
 }
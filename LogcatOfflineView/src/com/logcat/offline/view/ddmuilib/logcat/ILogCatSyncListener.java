@@ -1,6 +1,12 @@
 package com.logcat.offline.view.ddmuilib.logcat;
 
+import com.android.ddmuilib.logcat.LogCatMessage;
+
 public interface ILogCatSyncListener {
     
-    void synSelected(String synTime);
+    /**
+     * Select the message closest to a time.
+     * @param timestamp epoch milliseconds, see {@link LogCatMessage#getTimestamp()}.
+     */
+    void synSelected(long timestamp);
 }
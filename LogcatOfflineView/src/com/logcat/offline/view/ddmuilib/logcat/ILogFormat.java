@@ -0,0 +1,36 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.List;
+
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * A format of log lines, such as {@code logcat -v threadtime}. The parser detects the
+ * format of a file by asking each known format whether the lines it samples look like
+ * it, then hands every line of the file to the format found, see {@link LogFormats}.
+ * <p/>
+ * Lines are given as the bytes {@code [start, end)} of a buffer, trimmed and not
+ * empty, so that a format can scan them without decoding them first.
+ */
+interface ILogFormat {
+    /** Name of the format, the {@code -v} option of logcat for its own formats. */
+    String getName();
+
+    /**
+     * Whether a line looks like the start of a record of this format. This is asked
+     * for many lines, it should be cheap rather than thorough. Lines that are not
+     * detected continue the record before them, like the message lines of
+     * {@code logcat -v long}.
+     */
+    boolean detect(byte[] b, int start, int end);
+
+    /**
+     * Parse a line. A line that starts a record ends the current record of
+     * {@code state} and becomes the new one, see {@link ParseState#startRecord}. A
+     * line that is not in this format continues the current record, see
+     * {@link LogFormats#addUnformattedLine}. Records are added to {@code messages}
+     * once they end.
+     */
+    void parseLine(byte[] b, int start, int end, ParseState state, List<LogCatMessage> messages);
+}
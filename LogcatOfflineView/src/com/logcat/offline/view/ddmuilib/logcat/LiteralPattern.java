@@ -0,0 +1,82 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A regex of a filter that holds no regex syntax, searched for as a plain string by
+ * the Boyer-Moore-Horspool algorithm rather than by a {@link java.util.regex.Matcher}.
+ * Most words typed in the search bar are plain, and searching the text of each
+ * message for them is the inner loop of a refresh: the search mostly skips ahead by
+ * the length of the word.
+ * <p/>
+ * A case insensitive pattern matches as {@link Pattern#CASE_INSENSITIVE} does,
+ * folding the case of US-ASCII letters only.
+ */
+final class LiteralPattern {
+    /** Characters of the regex syntax, outside of an escape. */
+    private static final String SYNTAX = "\\^$.|?*+()[]{}";
+
+    /** The chars searched for, in lower case if the case is ignored. */
+    private final char[] mChars;
+    private final boolean mIgnoreCase;
+    /** How far the search moves on from the last char of a window, by its low byte. */
+    private final int[] mShifts = new int[256];
+
+    private LiteralPattern(String literal, boolean ignoreCase) {
+        mIgnoreCase = ignoreCase;
+        mChars = new char[literal.length()];
+        for (int i = 0; i < mChars.length; i++) {
+            mChars[i] = fold(literal.charAt(i));
+        }
+        int last = mChars.length - 1;
+        Arrays.fill(mShifts, mChars.length);
+        // chars of the same low byte share the shortest of their shifts
+        for (int i = 0; i < last; i++) {
+            mShifts[mChars[i] & 0xff] = last - i;
+        }
+    }
+
+    /**
+     * @return the pattern of a regex compiled with {@code flags}, or null if the regex
+     * is not a plain string.
+     */
+    static LiteralPattern compile(String regex, int flags) {
+        if (regex.length() == 0 || (flags & ~Pattern.CASE_INSENSITIVE) != 0) {
+            return null;
+        }
+        for (int i = 0; i < regex.length(); i++) {
+            if (SYNTAX.indexOf(regex.charAt(i)) >= 0) {
+                return null;
+            }
+        }
+        return new LiteralPattern(regex, (flags & Pattern.CASE_INSENSITIVE) != 0);
+    }
+
+    private char fold(char c) {
+        return mIgnoreCase && c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /** @return whether {@code s} holds the pattern. */
+    boolean find(CharSequence s) {
+        int last = mChars.length - 1;
+        char lastChar = mChars[last];
+        int length = s.length();
+        for (int i = last; i < length;) {
+            char c = fold(s.charAt(i));
+            if (c == lastChar) {
+                int j = last - 1;
+                int k = i - 1;
+                while (j >= 0 && fold(s.charAt(k)) == mChars[j]) {
+                    j--;
+                    k--;
+                }
+                if (j < 0) {
+                    return true;
+                }
+            }
+            i += mShifts[c & 0xff];
+        }
+        return false;
+    }
+}
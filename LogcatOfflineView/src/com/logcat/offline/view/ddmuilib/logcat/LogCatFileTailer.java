@@ -0,0 +1,68 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.FilePosition;
+
+/**
+ * Follows a log file that is still being written, such as the output of a running
+ * {@code adb logcat}. A background thread polls the file, parses the lines appended
+ * since the last poll and delivers them through
+ * {@link ILogCatMessageEventListener#messageAppended}. Existing messages are never
+ * parsed again.
+ */
+public final class LogCatFileTailer implements Runnable {
+    /** Delay between two polls of the file, in milliseconds. */
+    private static final int POLL_INTERVAL = 250;
+
+    private final FilePosition mPosition;
+    private final int mPanelID;
+    private volatile boolean mStopped;
+
+    private LogCatFileTailer(FilePosition position, int panelID) {
+        mPosition = position;
+        mPanelID = panelID;
+    }
+
+    /**
+     * Start following a file from where its last load into the panel ended.
+     * @return the running tailer, or null if the file has not been completely loaded
+     * into this panel.
+     */
+    public static LogCatFileTailer follow(File file, int panelID) {
+        FilePosition position = LogCatMessageParser.getInstance().getLoadEnd(panelID, file);
+        if (position == null) {
+            return null;
+        }
+        LogCatFileTailer tailer = new LogCatFileTailer(position, panelID);
+        Thread t = new Thread(tailer);
+        t.setName("Log follower " + file.getName());
+        t.setDaemon(true);
+        t.start();
+        return tailer;
+    }
+
+    public void stop() {
+        mStopped = true;
+    }
+
+    @Override
+    public void run() {
+        LogCatMessageParser parser = LogCatMessageParser.getInstance();
+        while (!mStopped) {
+            try {
+                // a poll parses all the complete lines appended since the previous one,
+                // so waiting between polls never falls behind a growing file
+                parser.parseAppended(mPosition, mPanelID);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -18,10 +18,16 @@ package com.logcat.offline.view.ddmuilib.logcat;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.logcat.LogCatMessage;
+import com.android.ddmuilib.logcat.LogCatSymbolTable;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -37,6 +43,7 @@ public final class LogCatFilter {
 //    public static final String APP_KEYWORD = "app:";   //$NON-NLS-1$
     public static final String TAG_KEYWORD = "tag:";   //$NON-NLS-1$
     public static final String TEXT_KEYWORD = "text:"; //$NON-NLS-1$
+    public static final String FIELD_KEYWORD = "field:"; //$NON-NLS-1$
     public static final String SHOW_KEYWORD = "show";   //$NON-NLS-1$
     public static final String HIDE_KEYWORD = "hide";   //$NON-NLS-1$
 
@@ -71,10 +78,74 @@ public final class LogCatFilter {
     private boolean mCheckShowTag;
     private List<String> mPIDList;
     private List<String> mTagList;
+    /** Condition on a value of the events, or null. */
+    private EventFieldCondition mFieldCondition;
 
 //    private Pattern mAppNamePattern;
     private Pattern mTagPattern;
     private Pattern mTextPattern;
+    /** {@link #mTagPattern} and {@link #mTextPattern} if they are plain strings, or null. */
+    private LiteralPattern mTagLiteral;
+    private LiteralPattern mTextLiteral;
+    /** Matcher of {@link #mTextPattern}, reset for each message. */
+    private Matcher mTextMatcher;
+    private final TextArena.Chars mTextChars = new TextArena.Chars();
+    /**
+     * Body ids of {@link #mTextStore} already matched against {@link #mTextPattern},
+     * and those that matched.
+     */
+    private LogStore mTextStore;
+    private BitSet mTextChecked;
+    private BitSet mTextMatched;
+
+    /**
+     * The tags of the filter resolved to their ids in the symbol table of the
+     * messages last matched, so that they are compared as ints. They are resolved
+     * again when the messages come from another table, or when the table grows.
+     */
+    private LogCatSymbolTable mSymbols;
+    private int mSymbolCount;
+    private BitSet mTagListIds;
+    private BitSet mTagShowIds;
+    /**
+     * The pids of the filter, see {@link #toPid(String)}. The pid lists are sets of
+     * pids, {@link LogCatMessage#NO_ID} standing for the unknown pid "?".
+     */
+    private final int mPidValue;
+    private Set<Integer> mPIDListPids;
+    private Set<Integer> mPIDHidePids;
+    /** Tag ids already matched against {@link #mTagPattern}, and those that matched. */
+    private BitSet mTagChecked;
+    private BitSet mTagMatched;
+
+    /**
+     * The checks of the filter that may fail, compiled when the tags are resolved,
+     * see {@link #compile()}.
+     */
+    private Check[] mChecks;
+
+    /** A check of the messages, one of the conditions of a filter. */
+    private abstract static class Check {
+        /** Estimated cost of a check for each message it fails, the order of the checks. */
+        final float mRank;
+
+        /**
+         * @param cost estimated cost of a check, 1 for a bit looked up
+         * @param pass estimated share of the messages that pass it
+         */
+        Check(float cost, float pass) {
+            mRank = cost / Math.max(1 - pass, 0.01f);
+        }
+
+        abstract boolean matches(LogStore store, long row);
+    }
+
+    private static final Comparator<Check> BY_RANK = new Comparator<Check>() {
+        @Override
+        public int compare(Check a, Check b) {
+            return Float.compare(a.mRank, b.mRank);
+        }
+    };
 
     /**
      * Construct a filter with the provided restrictions for the logcat message. All the text
@@ -109,6 +180,7 @@ public final class LogCatFilter {
         mTransient = false;
 
         mCheckPid = mPid.length() != 0;
+        mPidValue = toPid(mPid);
         mCheckHidePID = (mPIDHideList != null && mPIDHideList.size() > 0);
 //        mCheckHideTag = (mTagHideList != null);
         mCheckShowTag = (mTagShowList != null && mTagShowList.size() > 0);
@@ -128,6 +200,7 @@ public final class LogCatFilter {
         if (mTag.length() != 0) {
             try {
                 mTagPattern = Pattern.compile(mTag, getPatternCompileFlags(mTag));
+                mTagLiteral = LiteralPattern.compile(mTag, getPatternCompileFlags(mTag));
                 mCheckTag = true;
             } catch (PatternSyntaxException e) {
                 Log.e("LogCatFilter", "Ignoring invalid tag regex.");
@@ -139,6 +212,8 @@ public final class LogCatFilter {
         if (mText.length() != 0) {
             try {
                 mTextPattern = Pattern.compile(mText, getPatternCompileFlags(mText));
+                mTextMatcher = mTextPattern.matcher("");
+                mTextLiteral = LiteralPattern.compile(mText, getPatternCompileFlags(mText));
                 mCheckText = true;
             } catch (PatternSyntaxException e) {
                 Log.e("LogCatFilter", "Ignoring invalid text regex.");
@@ -170,7 +245,10 @@ public final class LogCatFilter {
      * a user would type in a search bar. These words are searched for in the text field of
      * each collected logcat message. To search in a different field, the word could be prefixed
      * with a keyword corresponding to the field name. Currently, the following keywords are
-     * supported: "pid:", "tag:" and "text:". Invalid regexes are ignored.
+     * supported: "pid:", "tag:" and "text:". Invalid regexes are ignored. A word prefixed
+     * with "field:" is a condition on a value of the events, such as "field:time>100",
+     * see {@link EventFieldCondition}; it is combined with the other words, as in
+     * "tag:dvm_lock_sample field:time>100". Invalid conditions are ignored.
      * @param minLevel minimum log level to match
      * @return list of filter settings that fully match the given query
      */
@@ -184,6 +262,7 @@ public final class LogCatFilter {
             String pid = "";
             String tid = "";
 //            String app = "";
+            EventFieldCondition field = null;
 
             if (s.startsWith(PID_KEYWORD)) {
                 pid = s.substring(PID_KEYWORD.length());
@@ -193,6 +272,11 @@ public final class LogCatFilter {
 //                app = s.substring(APP_KEYWORD.length());
             } else if (s.startsWith(TAG_KEYWORD)) {
                 tag = s.substring(TAG_KEYWORD.length());
+            } else if (s.startsWith(FIELD_KEYWORD)) {
+                field = EventFieldCondition.parse(s.substring(FIELD_KEYWORD.length()));
+                if (field == null) {
+                    Log.e("LogCatFilter", "Ignoring invalid field condition.");
+                }
             } else {
                 if (s.startsWith(TEXT_KEYWORD)) {
                     text = s.substring(TEXT_KEYWORD.length());
@@ -204,6 +288,7 @@ public final class LogCatFilter {
                     tag, text, pid, tid, minLevel, new ArrayList<String>(), new ArrayList<String>());
             logCatFilter.setmPIDList(pidList);
             logCatFilter.setmTagList(tagList);
+            logCatFilter.setFieldCondition(field);
             filterSettings.add(logCatFilter);
         }
 
@@ -245,116 +330,242 @@ public final class LogCatFilter {
 		this.mTagList = mTagList;
 	}
 
+	private void setFieldCondition(EventFieldCondition fieldCondition) {
+		this.mFieldCondition = fieldCondition;
+	}
+
 	/**
      * Check whether a given message will make it through this filter.
-     * @param m message to check
+     * @param store the messages
+     * @param row row of the message to check in {@code store}
      * @return true if the message matches the filter's conditions.
      */
-    public boolean matches(LogCatMessage m) {
-        /* filter out messages of a lower priority */
-        if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
-            return false;
+    boolean matches(LogStore store, long row) {
+        resolveSymbols(store.getSymbols());
+        for (Check check : mChecks) {
+            if (!check.matches(store, row)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        /* if pid filter is enabled, filter out messages whose pid does not match
-         * the filter's pid */
-        if (mCheckPid && !m.getPid().equals(mPid)) {
-            return false;
+    /**
+     * Compile the conditions of the filter into {@link #mChecks}. Conditions that
+     * every message passes, such as an empty list of pids to hide, are dropped. The
+     * others are ordered so that the cheap ones that fail many messages come first,
+     * by their cost for each message they fail; the costly text search comes last,
+     * and is only done for the messages that pass the rest.
+     */
+    private void compile() {
+        List<Check> checks = new ArrayList<Check>();
+        // every message is verbose or above
+        if (mLogLevel.getPriority() > LogLevel.VERBOSE.getPriority()) {
+            final int priority = mLogLevel.getPriority();
+            checks.add(new Check(1, levelShare(mLogLevel)) {
+                @Override
+                boolean matches(LogStore store, long row) {
+                    return store.getLogLevel(row).getPriority() >= priority;
+                }
+            });
+        }
+
+        if (mCheckPid) {
+            final int pid = mPidValue;
+            checks.add(new Check(1, 0.05f) {
+                @Override
+                boolean matches(LogStore store, long row) {
+                    return store.getPidValue(row) == pid;
+                }
+            });
+        }
+        if (mPIDList != null && mPIDList.size() != 0) {
+            addPidCheck(checks, mPIDListPids, mPIDList.get(0).equals(SHOW_KEYWORD));
+        }
+        if (mCheckHidePID) {
+            addPidCheck(checks, mPIDHidePids, false);
         }
-        //lijun
-        //FIXME: need tid?
-
-//        /* if app name filter is enabled, filter out messages not matching the app name */
-//        if (mCheckAppName) {
-//            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
-//            if (!matcher.find()) {
-//                return false;
-//            }
-//        }
 
-        /* if tag filter is enabled, filter out messages not matching the tag */
+        if (mTagList != null && mTagList.size() != 0) {
+            addTagCheck(checks, mTagListIds, mTagList.get(0).equals(SHOW_KEYWORD));
+        }
+        if (mCheckShowTag) {
+            addTagCheck(checks, mTagShowIds, true);
+        }
         if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
-            if (!matcher.find()) {
-                return false;
-            }
+            checks.add(new Check(2, 0.1f) {
+                @Override
+                boolean matches(LogStore store, long row) {
+                    int tag = store.getTagId(row);
+                    if (!mTagChecked.get(tag)) {
+                        String value = store.getTag(row);
+                        mTagMatched.set(tag, mTagLiteral != null ? mTagLiteral.find(value)
+                                : mTagPattern.matcher(value).find());
+                        mTagChecked.set(tag);
+                    }
+                    return mTagMatched.get(tag);
+                }
+            });
         }
 
+        if (mFieldCondition != null) {
+            checks.add(new Check(4, 0.1f) {
+                @Override
+                boolean matches(LogStore store, long row) {
+                    return mFieldCondition.matches(store.getEventValues(row));
+                }
+            });
+        }
         if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
-            if (!matcher.find()) {
-                return false;
+            checks.add(new Check(mTextLiteral != null ? 8 : 16, 0.1f) {
+                @Override
+                boolean matches(LogStore store, long row) {
+                    if (store != mTextStore) {
+                        mTextStore = store;
+                        mTextChecked = new BitSet();
+                        mTextMatched = new BitSet();
+                    }
+                    int body = store.getBodyId(row);
+                    if (!mTextChecked.get(body)) {
+                        // the text is matched where it is stored, without copying it
+                        CharSequence text = store.getMessage(row, mTextChars);
+                        mTextMatched.set(body, mTextLiteral != null ? mTextLiteral.find(text)
+                                : mTextMatcher.reset(text).find());
+                        mTextChecked.set(body);
+                    }
+                    return mTextMatched.get(body);
+                }
+            });
+        }
+
+        Collections.sort(checks, BY_RANK);
+        mChecks = checks.toArray(new Check[checks.size()]);
+    }
+
+    /** @return a rough share of the messages of {@code level} or above. */
+    private static float levelShare(LogLevel level) {
+        switch (level) {
+            case DEBUG:
+                return 0.7f;
+            case INFO:
+                return 0.4f;
+            case WARN:
+                return 0.1f;
+            case ERROR:
+                return 0.05f;
+            case ASSERT:
+                return 0.01f;
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Add the check of a list of pids, unless it passes every message.
+     * @param show whether the messages of the pids are shown, or hidden
+     */
+    private void addPidCheck(List<Check> checks, final Set<Integer> pids, final boolean show) {
+        if (!show && pids.isEmpty()) {
+            return;
+        }
+        int count = pids.size();
+        checks.add(new Check(1, show ? Math.min(0.1f * count, 0.9f)
+                : Math.max(1 - 0.1f * count, 0.1f)) {
+            @Override
+            boolean matches(LogStore store, long row) {
+                return pids.contains(store.getPidValue(row)) == show;
             }
+        });
+    }
+
+    /**
+     * Add the check of a set of tag ids, unless it passes every message.
+     * @param show whether the messages of the tags are shown, or hidden
+     */
+    private void addTagCheck(List<Check> checks, final BitSet tags, final boolean show) {
+        if (!show && tags.isEmpty()) {
+            return;
         }
-        
-        if (mPIDList != null && mPIDList.size() != 0){
-        	boolean isFind = false;
-    		for (int i = 0; i < mPIDList.size(); i++){
-    			if (m.getPid().equals(mPIDList.get(i))){
-    				isFind = true;
-    				break;
-    			}
-    		}
-    		boolean isShow = mPIDList.get(0).equals(SHOW_KEYWORD);
-    		if ((isShow && !isFind) || (!isShow && isFind)){
-    			return false;
-    		}
+        float share = (float) tags.cardinality() / Math.max(mSymbolCount, 1);
+        checks.add(new Check(1, show ? share : 1 - share) {
+            @Override
+            boolean matches(LogStore store, long row) {
+                return tags.get(store.getTagId(row)) == show;
+            }
+        });
+    }
+
+    /**
+     * Look up the tags of the filter in {@code symbols}. A value that is not in the
+     * table matches no message, until a message adds it to the table.
+     */
+    private void resolveSymbols(LogCatSymbolTable symbols) {
+        int count = symbols.size();
+        if (symbols == mSymbols && count == mSymbolCount) {
+            return;
         }
-        
-        if (mTagList != null && mTagList.size() != 0){
-        	boolean isFind = false;
-    		for (int i = 0; i < mTagList.size(); i++){
-    			if (m.getTag().equals(mTagList.get(i))){
-    				isFind = true;
-    				break;
-    			}
-    		}
-    		boolean isShow = mTagList.get(0).equals(SHOW_KEYWORD);
-    		if ((isShow && !isFind) || (!isShow && isFind)){
-    			return false;
-    		}
+        if (symbols != mSymbols) {
+            mTagChecked = new BitSet();
+            mTagMatched = new BitSet();
+            mPIDListPids = toPidSet(mPIDList);
+            mPIDHidePids = toPidSet(mPIDHideList);
         }
-        
-        if (mCheckHidePID){
-        	for (String PID : mPIDHideList){
-        		if (m.getPid().equals(PID)){
-        			return false;
-        		}
-        	}
+        mSymbols = symbols;
+        mSymbolCount = count;
+        mTagListIds = lookup(symbols, mTagList);
+        mTagShowIds = lookup(symbols, mTagShowSet);
+        compile();
+    }
+
+    /**
+     * @return the pid of a value of the filter, {@link LogCatMessage#NO_ID} for "?",
+     * or a value no message has if it is not a pid.
+     */
+    private static int toPid(String value) {
+        int pid = LogCatMessage.parseId(value);
+        if (pid == LogCatMessage.NO_ID && !value.equals("?")) {
+            return Integer.MIN_VALUE;
         }
-        /*if (mCheckHideTag){
-        	for (String tag : mTagHideList){
-        		if (m.getTag().equals(tag)){
-        			return false;
-        		}
-        	}
-        }*/
-        
-        if (mCheckShowTag){
-        	boolean isFind = false;
-        	for (String tag : mTagShowSet){
-//        	for (String tag : mTagShowList){
-        		if (m.getTag().equals(tag)){
-        			isFind = true;
-        		}
-        	}
-        	if (!isFind){
-        		return false;
-        	}
+        return pid;
+    }
+
+    private static Set<Integer> toPidSet(Collection<String> values) {
+        Set<Integer> pids = new HashSet<Integer>();
+        if (values != null) {
+            for (String value : values) {
+                int pid = toPid(value);
+                if (pid != Integer.MIN_VALUE) {
+                    pids.add(pid);
+                }
+            }
         }
+        return pids;
+    }
 
-        return true;
+    private static BitSet lookup(LogCatSymbolTable symbols, Collection<String> values) {
+        BitSet ids = new BitSet();
+        if (values != null) {
+            for (String value : values) {
+                int id = symbols.lookup(value);
+                if (id >= 0) {
+                    ids.set(id);
+                }
+            }
+        }
+        return ids;
     }
 
     /**
      * Update the unread count based on new messages received. The unread count
-     * is incremented by the count of messages in the received list that will be
+     * is incremented by the count of messages in the received rows that will be
      * accepted by this filter.
-     * @param newMessages list of new messages.
+     * @param store the messages
+     * @param from first new row
+     * @param to row following the last new one
      */
-    public void updateUnreadCount(List<LogCatMessageWrapper> newMessages) {
-        for (LogCatMessageWrapper m : newMessages) {
-            if (matches(m.getLogCatMessage())) {
+    void updateUnreadCount(LogStore store, long from, long to) {
+        for (long row = from; row < to; row++) {
+            if (matches(store, row)) {
                 mUnreadCount++;
             }
         }
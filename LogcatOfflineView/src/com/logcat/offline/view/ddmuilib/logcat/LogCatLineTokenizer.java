@@ -0,0 +1,409 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * Fixed layout scanners for the most common logcat formats ({@code -v threadtime},
+ * {@code -v time} and {@code brief}), with or without the uid column of
+ * {@code -v uid}. They work on the raw bytes of a trimmed line and find the fields by
+ * index arithmetic, decoding only the fields they keep.
+ * <p/>
+ * Each scanner only accepts lines laid out the way logcat writes them, and for
+ * those it produces exactly what the matching regular expression of
+ * {@link LogFormats} would. Anything else is reported as not handled, and
+ * the caller falls back to the regular expression.
+ */
+final class LogCatLineTokenizer {
+    private static final Charset UTF8 = MappedLineReader.UTF8;
+
+    /** Length of "MM-dd HH:mm:ss." */
+    private static final int TIME_PREFIX_LENGTH = 15;
+
+    private LogCatLineTokenizer() {
+    }
+
+    /**
+     * Parse a {@code logcat -v threadtime} line:
+     * {@code "04-08 12:57:40.370    89   103 I Installer: connecting..."}
+     * @param uid whether the pid is preceded by a uid, as in
+     * {@code "04-08 12:57:40.370  1000    89   103 I Installer: connecting..."}. The
+     * lines of such a log that lack it go through the regular expression.
+     * @return false if the line has to go through the regular expression instead.
+     */
+    static boolean parseThreadtime(byte[] b, int start, int end, boolean uid,
+            ParseState state, List<LogCatMessage> messages) {
+        int p = scanTime(b, start, end);
+        if (p < 0) {
+            return false;
+        }
+        String time = ascii(b, start, p);
+        long timestamp = state.times.decode(b, start, p);
+
+        int pidStart = skipSpaces(b, p, end);
+        if (pidStart == p) {
+            return false;
+        }
+        if (uid) {
+            pidStart = skipUid(b, pidStart, end);
+            if (pidStart < 0) {
+                return false;
+            }
+        }
+        int pidEnd = skipDigits(b, pidStart, end);
+        int tidStart = skipSpaces(b, pidEnd, end);
+        if (pidEnd == pidStart || tidStart == pidEnd) {
+            return false;
+        }
+        int tidEnd = skipDigits(b, tidStart, end);
+        // exactly one space on each side of the level
+        if (tidEnd == tidStart || tidEnd + 3 > end || !isSpace(b[tidEnd])
+                || !isSpace(b[tidEnd + 2])) {
+            return false;
+        }
+        byte level = b[tidEnd + 1];
+        int tagStart = tidEnd + 3;
+
+        int colon = findTagEnd(b, tagStart, end);
+        if (colon < 0 || !isLevel(level) || hasLineSeparator(b, tagStart, end)) {
+            return false;
+        }
+        addMessage(messages, state, level, b, pidStart, pidEnd,
+                parseId(b, tidStart, tidEnd), tagStart, colon, time, timestamp,
+                skipSpaces(b, colon + 1, end), end);
+        return true;
+    }
+
+    /**
+     * Parse a {@code logcat -v time} line:
+     * {@code "04-07 09:19:27.446 I/InputReader(   89): Device reconfigured"}
+     * @param uid whether the pid may be preceded by a uid, as in
+     * {@code "I/InputReader( 1000:   89)"}
+     * @return false if the line has to go through the regular expression instead.
+     */
+    static boolean parseTime(byte[] b, int start, int end, boolean uid, ParseState state,
+            List<LogCatMessage> messages) {
+        int p = scanTime(b, start, end);
+        if (p < 0) {
+            return false;
+        }
+        String time = ascii(b, start, p);
+        long timestamp = state.times.decode(b, start, p);
+        while (p < end && b[p] == ':') {
+            p++;
+        }
+        if (p >= end || !isSpace(b[p])) {
+            return false;
+        }
+        return parseLevelTagPid(b, p + 1, end, uid, time, timestamp, state, messages);
+    }
+
+    /**
+     * Parse a {@code logcat -v brief} line:
+     * {@code "I/MediaUploader(22541): No need to wake up"}
+     * @param uid whether the pid may be preceded by a uid, as in
+     * {@code "I/MediaUploader(u0_a12 22541)"}
+     * @return false if the line has to go through the regular expression instead.
+     */
+    static boolean parseBrief(byte[] b, int start, int end, boolean uid, ParseState state,
+            List<LogCatMessage> messages) {
+        return parseLevelTagPid(b, start, end, uid, "?", LogCatMessage.NO_TIMESTAMP, state,
+                messages);
+    }
+
+    /**
+     * Parse the {@code "I/Tag( pid): message"} part shared by {@code brief} and
+     * {@code -v time}.
+     */
+    private static boolean parseLevelTagPid(byte[] b, int p, int end, boolean uid,
+            String time, long timestamp, ParseState state, List<LogCatMessage> messages) {
+        if (p + 2 > end || !isLevel(b[p]) || b[p + 1] != '/') {
+            return false;
+        }
+        byte level = b[p];
+        int tagStart = p + 2;
+
+        int paren = uid ? findUidPid(b, tagStart, end) : findPid(b, tagStart, end);
+        if (paren < 0 || hasLineSeparator(b, tagStart, end)) {
+            return false;
+        }
+        int pidStart = uid ? findUidPidStart(b, paren, end) : skipSpaces(b, paren + 1, end);
+        int pidEnd = skipDigits(b, pidStart, end);
+        addMessage(messages, state, level, b, pidStart, pidEnd, LogCatMessage.NO_ID,
+                tagStart, paren, time, timestamp, skipSpaces(b, pidEnd + 2, end), end);
+        return true;
+    }
+
+    /**
+     * Find the end of a tag followed by a pid, the first '(' matching
+     * {@code "\(\s*\d+\):\s"}.
+     * @return the offset of the '(', or -1.
+     */
+    private static int findPid(byte[] b, int p, int end) {
+        for (int paren = p; paren < end; paren++) {
+            if (b[paren] == '(' && findPidEnd(b, skipSpaces(b, paren + 1, end), end) >= 0) {
+                return paren;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of a tag followed by a pid that may be preceded by a uid, the first
+     * '(' matching {@code "\(\s*(?:[^\s:()]+(?::\s*|\s+))?\d+\):\s"}.
+     * @return the offset of the '(', or -1.
+     */
+    private static int findUidPid(byte[] b, int p, int end) {
+        for (int paren = p; paren < end; paren++) {
+            if (b[paren] == '(' && findUidPidStart(b, paren, end) >= 0) {
+                return paren;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the offset of the pid following the '(' at {@code paren}, past the uid
+     * if there is one, or -1 if there is no pid.
+     */
+    private static int findUidPidStart(byte[] b, int paren, int end) {
+        int p = skipSpaces(b, paren + 1, end);
+        int pidStart = skipUid(b, p, end);
+        if (pidStart >= 0 && findPidEnd(b, pidStart, end) >= 0) {
+            return pidStart;
+        }
+        return findPidEnd(b, p, end) >= 0 ? p : -1;
+    }
+
+    /** @return the end of the pid at {@code p}, followed by {@code "):\s"}, or -1. */
+    private static int findPidEnd(byte[] b, int p, int end) {
+        int pidEnd = skipDigits(b, p, end);
+        return pidEnd > p && pidEnd + 2 < end && b[pidEnd] == ')' && b[pidEnd + 1] == ':'
+                && isSpace(b[pidEnd + 2]) ? pidEnd : -1;
+    }
+
+    /**
+     * Skip the uid {@code -v uid} puts before a pid, a number or a user name such as
+     * {@code "u0_a12"}, and what separates them: {@code "[^\s:()]+(?::\s*|\s+)"}.
+     * @return the offset following it, or -1.
+     */
+    private static int skipUid(byte[] b, int p, int end) {
+        int uidEnd = p;
+        while (uidEnd < end && !isSpace(b[uidEnd]) && b[uidEnd] != ':' && b[uidEnd] != '('
+                && b[uidEnd] != ')') {
+            uidEnd++;
+        }
+        if (uidEnd == p || uidEnd == end) {
+            return -1;
+        }
+        if (b[uidEnd] == ':') {
+            return skipSpaces(b, uidEnd + 1, end);
+        }
+        return isSpace(b[uidEnd]) ? skipSpaces(b, uidEnd, end) : -1;
+    }
+
+    /**
+     * Whether {@code "\d+\s+\d+\s[VDIWEAF]\s"}, the pid, tid and level of a
+     * threadtime line, is at {@code p}.
+     */
+    private static boolean isThreadtimeIds(byte[] b, int p, int end) {
+        int pidEnd = skipDigits(b, p, end);
+        int tidStart = skipSpaces(b, pidEnd, end);
+        int tidEnd = skipDigits(b, tidStart, end);
+        return pidEnd > p && tidStart > pidEnd && tidEnd > tidStart && tidEnd + 2 < end
+                && isSpace(b[tidEnd]) && isLevel(b[tidEnd + 1]) && isSpace(b[tidEnd + 2]);
+    }
+
+    /**
+     * Guess the format of a trimmed line from the layout of its first fields. This
+     * is cheap enough to be done on every line of a file, but unlike the regular
+     * expressions it does not validate the whole line, so the parser of the returned
+     * format may still reject it.
+     * @return the format of the line, one of the formats of logcat in
+     * {@link LogFormats}, or null.
+     */
+    static ILogFormat classify(byte[] b, int start, int end) {
+        if (end - start < 2) {
+            return null;
+        }
+        byte first = b[start];
+        if (first == '[') {
+            // "[ 04-08 12:57:40.370  89:  103 I/Installer ]"
+            return isSpace(b[start + 1]) && scanTime(b, start + 2, end) >= 0
+                    && b[end - 1] == ']' ? LogFormats.LONG : null;
+        }
+        if (isLevel(first)) {
+            if (b[start + 1] == '/') {
+                if (findPid(b, start + 2, end) >= 0) {
+                    return LogFormats.BRIEF;
+                }
+                if (findUidPid(b, start + 2, end) >= 0) {
+                    return LogFormats.BRIEF_UID;
+                }
+                return findTagEnd(b, start + 2, end) >= 0 ? LogFormats.TAG : null;
+            }
+            if (b[start + 1] == '(') {
+                int p = skipDigits(b, skipSpaces(b, start + 2, end), end);
+                if (p < end && b[p] == ')') {
+                    return LogFormats.PROCESS;
+                }
+                if (p + 2 < end && b[p] == ':' && b[p + 1] == '0' && b[p + 2] == 'x') {
+                    return LogFormats.THREAD;
+                }
+            }
+            return null;
+        }
+
+        int p = scanTime(b, start, end);
+        if (p < 0) {
+            return null;
+        }
+        int q = p;
+        while (q < end && b[q] == ':') {
+            q++;
+        }
+        if (q + 2 < end && isSpace(b[q])) {
+            if (isLevel(b[q + 1]) && b[q + 2] == '/') {
+                return findPid(b, q + 3, end) < 0 && findUidPid(b, q + 3, end) >= 0
+                        ? LogFormats.TIME_UID : LogFormats.TIME;
+            }
+            int word = q + 1;
+            while (word < end && b[word] >= 'A' && b[word] <= 'Z') {
+                word++;
+            }
+            if (word - q > 2 && word < end && b[word] == '/') {
+                // "04-07 09:19:27.446: INFO/InputReader(89): ..." as saved by DDMS
+                return LogFormats.DDMS;
+            }
+        }
+        int pid = skipSpaces(b, p, end);
+        if (pid > p && !isThreadtimeIds(b, pid, end)) {
+            int uidPid = skipUid(b, pid, end);
+            if (uidPid >= 0 && isThreadtimeIds(b, uidPid, end)) {
+                return LogFormats.THREADTIME_UID;
+            }
+        }
+        return pid < end && isDigit(b[pid]) ? LogFormats.THREADTIME : null;
+    }
+
+    private static void addMessage(List<LogCatMessage> messages, ParseState state, byte level,
+            byte[] b, int pidStart, int pidEnd, int tid, int tagStart, int tagEnd, String time,
+            long timestamp, int msgStart, int end) {
+        // same as String.trim(), UTF-8 encodes the characters it trims as single bytes
+        while (tagStart < tagEnd && (b[tagStart] & 0xff) <= ' ') {
+            tagStart++;
+        }
+        while (tagEnd > tagStart && (b[tagEnd - 1] & 0xff) <= ' ') {
+            tagEnd--;
+        }
+        if (tagStart == tagEnd) {
+            state.endRecord(messages);
+            return;
+        }
+        /*
+         * LogLevel doesn't support messages with severity "F".
+         * Log.wtf() is supposed to generate "A", but generates "F".
+         */
+        LogLevel logLevel = level == 'F' ? LogLevel.ASSERT : LogLevel.getByLetter((char) level);
+        String msg = new String(b, msgStart, end - msgStart, UTF8);
+        state.startRecord(new LogCatMessage(logLevel, state.symbols,
+                parseId(b, pidStart, pidEnd), tid, state.tags.intern(b, tagStart, tagEnd),
+                time, timestamp, msg), messages);
+    }
+
+    /**
+     * Check for a {@code "MM-dd HH:mm:ss.S+"} time stamp at {@code p}.
+     * @return the offset following the time stamp, or -1.
+     */
+    private static int scanTime(byte[] b, int p, int end) {
+        if (p + TIME_PREFIX_LENGTH >= end
+                || !isDigit(b[p]) || !isDigit(b[p + 1]) || b[p + 2] != '-'
+                || !isDigit(b[p + 3]) || !isDigit(b[p + 4]) || !isSpace(b[p + 5])
+                || !isDigit(b[p + 6]) || !isDigit(b[p + 7]) || b[p + 8] != ':'
+                || !isDigit(b[p + 9]) || !isDigit(b[p + 10]) || b[p + 11] != ':'
+                || !isDigit(b[p + 12]) || !isDigit(b[p + 13]) || b[p + 14] != '.'
+                || !isDigit(b[p + 15])) {
+            return -1;
+        }
+        return skipDigits(b, p + TIME_PREFIX_LENGTH, end);
+    }
+
+    /** @return the first ':' followed by a space, or -1. */
+    private static int findTagEnd(byte[] b, int p, int end) {
+        for (int i = p; i + 1 < end; i++) {
+            if (b[i] == ':' && isSpace(b[i + 1])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The '.' of a regular expression does not match U+0085, U+2028 or U+2029. Lines
+     * holding them are left to the regular expression so the outcome stays the same.
+     */
+    private static boolean hasLineSeparator(byte[] b, int p, int end) {
+        for (int i = p; i + 1 < end; i++) {
+            if (b[i] >= 0) {
+                continue;
+            }
+            if ((b[i] == (byte) 0xc2 && b[i + 1] == (byte) 0x85)
+                    || (b[i] == (byte) 0xe2 && b[i + 1] == (byte) 0x80 && i + 2 < end
+                            && (b[i + 2] == (byte) 0xa8 || b[i + 2] == (byte) 0xa9))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipSpaces(byte[] b, int p, int end) {
+        while (p < end && isSpace(b[p])) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * @return the decimal pid or tid {@code [start, end)} of {@code b}, or
+     * {@link LogCatMessage#NO_ID} if it is empty or too large.
+     */
+    private static int parseId(byte[] b, int start, int end) {
+        if (start == end || end - start > 10) {
+            return LogCatMessage.NO_ID;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = 10 * value + b[i] - '0';
+        }
+        return LogCatMessage.toId(value);
+    }
+
+    private static int skipDigits(byte[] b, int p, int end) {
+        while (p < end && isDigit(b[p])) {
+            p++;
+        }
+        return p;
+    }
+
+    /** Same characters as \s, minus the line terminators that can not occur in a line. */
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == 0x0b || c == '\f';
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLevel(byte c) {
+        return c == 'V' || c == 'D' || c == 'I' || c == 'W' || c == 'E' || c == 'A' || c == 'F';
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String ascii(byte[] b, int start, int end) {
+        return new String(b, 0, start, end - start);
+    }
+}
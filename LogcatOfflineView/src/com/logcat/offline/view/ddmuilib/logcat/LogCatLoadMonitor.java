@@ -0,0 +1,93 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a load running on a worker thread. The parser reports the bytes and
+ * lines it went through, while the UI polls {@link #getStatusText()} and may
+ * {@link #cancel()} the load at any time. A canceled load stops reading and does not
+ * deliver any more messages.
+ */
+public final class LogCatLoadMonitor {
+    private static final double MB = 1024 * 1024;
+
+    private final AtomicLong mTotalBytes = new AtomicLong();
+    private final AtomicLong mBytesRead = new AtomicLong();
+    private final AtomicLong mLines = new AtomicLong();
+    private final long mStartTime = System.currentTimeMillis();
+    private volatile long mEndTime;
+    private volatile String mFileName = "";
+    /** Whether the size of a file read is not known, and so neither is the total. */
+    private volatile boolean mTotalUnknown;
+    private volatile boolean mCanceled;
+    private volatile boolean mDone;
+
+    /**
+     * Start reading a file. Its size adds up to the sizes of the files this load
+     * has read already.
+     * @param size the size of the file, or -1 if it is not known, such as for an
+     * entry of a zip archive written as a stream.
+     */
+    void beginFile(String fileName, long size) {
+        mFileName = fileName;
+        if (size < 0) {
+            mTotalUnknown = true;
+        } else {
+            mTotalBytes.addAndGet(size);
+        }
+    }
+
+    /** Report the bytes and lines read since the last call. */
+    void worked(long bytes, long lines) {
+        mBytesRead.addAndGet(bytes);
+        mLines.addAndGet(lines);
+    }
+
+    public void cancel() {
+        mCanceled = true;
+    }
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /** Called by the thread running the load once it is over, successful or not. */
+    public void done() {
+        mEndTime = System.currentTimeMillis();
+        mDone = true;
+    }
+
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * One line summary of the load, such as
+     * {@code "Loading main.txt: 12.3 of 40.0 MB, 250000 lines/s, 5 s left"}.
+     */
+    public String getStatusText() {
+        long lines = mLines.get();
+        if (mCanceled) {
+            return "Canceled loading " + mFileName;
+        }
+        if (mDone) {
+            return String.format("Loaded %s: %d lines in %.1f s", mFileName, lines,
+                    (mEndTime - mStartTime) / 1000.0);
+        }
+
+        long elapsed = System.currentTimeMillis() - mStartTime;
+        long read = mBytesRead.get();
+        long total = mTotalBytes.get();
+        if (read == 0 || elapsed == 0) {
+            return "Loading " + mFileName + "...";
+        }
+        long linesPerSecond = lines * 1000 / elapsed;
+        if (mTotalUnknown) {
+            return String.format("Loading %s: %.1f MB, %d lines/s", mFileName, read / MB,
+                    linesPerSecond);
+        }
+        long left = (long) ((double) (total - read) * elapsed / read / 1000);
+        return String.format("Loading %s: %.1f of %.1f MB, %d lines/s, %d s left", mFileName,
+                read / MB, total / MB, linesPerSecond, Math.max(left, 0));
+    }
+}
@@ -16,30 +16,157 @@
 
 package com.logcat.offline.view.ddmuilib.logcat;
 
-import java.util.List;
+import java.util.Arrays;
 
-import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.Viewer;
 
 /**
  * A JFace content provider for the LogCat log messages, used in the {@link LogCatPanel}.
+ * The input of the viewer is a {@link LogStore}, of which the table shows the rows that
+ * pass the filters of the panel. The element of a table item is the row of the store,
+ * a {@link Long}, set only for the items the virtual table paints.
+ * <p/>
+ * A store may hold more rows than a table has room for, so the table only holds a
+ * window of at most {@link #WINDOW_SIZE} of the rows shown, from
+ * {@link #getWindowStart()} on, which the panel moves as the table is scrolled. The
+ * rows shown are kept one bit per row of the store, with the number of rows shown
+ * before each segment of the store, so that they take a few bytes per segment
+ * however many they are.
  */
-public final class LogCatMessageContentProvider implements IStructuredContentProvider {
+public final class LogCatMessageContentProvider implements ILazyContentProvider {
+    /** Most items in the table at once. */
+    static final int WINDOW_SIZE = 1 << 20;
+
+    private TableViewer mViewer;
+    private LogStore mStore;
+    /** Rows of {@link #mStore} shown. */
+    private RowBitSet mRows = new RowBitSet();
+    /** Number of rows shown, and number of them before each segment of the store. */
+    private long mRowCount;
+    private long[] mSegmentStarts = new long[16];
+    private int mSegmentCount;
+    /** Index among the rows shown of the first item of the table. */
+    private long mWindowStart;
+
     @Override
     public void dispose() {
     }
 
     @Override
     public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        mViewer = (TableViewer) viewer;
+        mStore = (LogStore) newInput;
+        clear();
     }
 
     @Override
-    public Object[] getElements(Object model) {
-        if (model instanceof List<?>) {
-            Object[] e = ((List<?>) model).toArray();
-            return e;
+    public void updateElement(int index) {
+        if (index < getItemCount()) {
+            mViewer.replace(Long.valueOf(getRow(index)), index);
+        }
+    }
+
+    /** Show no rows. */
+    void clear() {
+        mRows.clear();
+        mRowCount = 0;
+        mSegmentCount = 0;
+        mWindowStart = 0;
+    }
+
+    /**
+     * Show the rows another provider was filled with instead, such as one filled on a
+     * worker thread, from the first one on. The other provider is not used afterwards.
+     */
+    void setRows(LogCatMessageContentProvider rows) {
+        mRows = rows.mRows;
+        mRowCount = rows.mRowCount;
+        mSegmentStarts = rows.mSegmentStarts;
+        mSegmentCount = rows.mSegmentCount;
+        mWindowStart = 0;
+    }
+
+    /** Show one more row, after the others. */
+    void addRow(long row) {
+        int segment = (int) (row >>> LogStore.SEGMENT_BITS);
+        while (mSegmentCount <= segment) {
+            if (mSegmentCount == mSegmentStarts.length) {
+                mSegmentStarts = Arrays.copyOf(mSegmentStarts, 2 * mSegmentCount);
+            }
+            mSegmentStarts[mSegmentCount++] = mRowCount;
         }
+        mRows.set(row);
+        mRowCount++;
+    }
+
+    /**
+     * @return the index among the rows shown of a row of the store, or -1 if the row
+     * is not shown.
+     */
+    long getShownIndex(long row) {
+        if (!mRows.get(row)) {
+            return -1;
+        }
+        int segment = (int) (row >>> LogStore.SEGMENT_BITS);
+        long start = (long) segment << LogStore.SEGMENT_BITS;
+        return mSegmentStarts[segment] + mRows.count(start, row);
+    }
+
+    /** @return the row of the store shown at an index among the rows shown. */
+    long getShownRow(long index) {
+        // the last segment whose rows shown start at or before the index holds it
+        int low = 0;
+        int high = mSegmentCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSegmentStarts[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mRows.select((long) low << LogStore.SEGMENT_BITS, index - mSegmentStarts[low]);
+    }
+
+    /**
+     * @return the table index of a row of the store, or a negative value if the row
+     * is not shown or out of the window.
+     */
+    int indexOf(long row) {
+        long shown = getShownIndex(row);
+        if (shown < 0) {
+            return -1;
+        }
+        long index = shown - mWindowStart;
+        return index >= 0 && index < getItemCount() ? (int) index : -1;
+    }
+
+    /** @return the row of the store shown at a table index. */
+    long getRow(int index) {
+        return getShownRow(mWindowStart + index);
+    }
+
+    /** @return the number of rows shown, in and out of the window. */
+    long getRowCount() {
+        return mRowCount;
+    }
+
+    /** @return the number of items of the table, the rows shown in the window. */
+    int getItemCount() {
+        return (int) Math.max(0, Math.min(WINDOW_SIZE, mRowCount - mWindowStart));
+    }
+
+    long getWindowStart() {
+        return mWindowStart;
+    }
 
-        return null;
+    /**
+     * Move the window to start at an index among the rows shown. The items of the
+     * table must be updated by the caller.
+     */
+    void setWindowStart(long start) {
+        mWindowStart = start;
     }
 }
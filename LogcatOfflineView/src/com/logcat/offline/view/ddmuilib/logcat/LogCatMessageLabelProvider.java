@@ -26,8 +26,9 @@ import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.logcat.LogCatMessage;
 
 /**
- * A JFace Column label provider for the LogCat log messages. It expects elements of type
- * {@link LogCatMessage}.
+ * A JFace Column label provider for the LogCat log messages. Its elements are rows of
+ * the {@link LogStore} set by {@link #setStore(LogStore)}, whose cells are read from
+ * the store without creating a {@link LogCatMessage}.
  */
 public final class LogCatMessageLabelProvider extends ColumnLabelProvider {
     private static final int INDEX_LOGLEVEL = 0;
@@ -52,6 +53,7 @@ public final class LogCatMessageLabelProvider extends ColumnLabelProvider {
 
     private Font mLogFont;
     private int mWrapWidth = 100;
+    private LogStore mStore;
 
     /**
      * Construct a column label provider for the logcat table.
@@ -61,49 +63,62 @@ public final class LogCatMessageLabelProvider extends ColumnLabelProvider {
         mLogFont = font;
     }
 
-    private String getCellText(LogCatMessage m, int columnIndex) {
+    /** Set the store of the rows shown, before it becomes the input of the table. */
+    void setStore(LogStore store) {
+        mStore = store;
+    }
+
+    private String getCellText(LogStore store, long row, int columnIndex) {
         switch (columnIndex) {
             case INDEX_LOGLEVEL:
-                return Character.toString(m.getLogLevel().getPriorityLetter());
+                return Character.toString(store.getLogLevel(row).getPriorityLetter());
             case INDEX_LOGTIME:
-                return m.getTime();
+                return store.getTime(row);
             case INDEX_PID:
-                return m.getPid();
+                return LogCatMessage.formatId(store.getPidValue(row));
             case INDEX_TID:
-                return m.getTid();
+                return LogCatMessage.formatId(store.getTidValue(row));
 //            case INDEX_APPNAME:
 //                return m.getAppName();
             case INDEX_TAG:
-                return m.getTag();
+                return store.getTag(row);
             case INDEX_TEXT:
-                return m.getMessage();
+                return getFirstLine(store.getMessage(row));
             default:
                 return "";
         }
     }
 
+    /** A table row holds one line of a message, the tool tip shows the others. */
+    private static String getFirstLine(String message) {
+        int end = message.indexOf('\n');
+        if (end < 0) {
+            return message;
+        }
+        int lines = 1;
+        for (int i = end; i >= 0; i = message.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        return message.substring(0, end) + "  [+" + (lines - 1) + " lines]";
+    }
+
     @Override
     public void update(ViewerCell cell) {
         Object element = cell.getElement();
-        if (!(element instanceof LogCatMessageWrapper)) {
+        if (!(element instanceof Long) || mStore == null) {
             return;
         }
-        LogCatMessage m = ((LogCatMessageWrapper) element).getLogCatMessage();
+        long row = ((Long) element).longValue();
 
-        String text = getCellText(m, cell.getColumnIndex());
+        String text = getCellText(mStore, row, cell.getColumnIndex());
         cell.setText(text);
         cell.setFont(mLogFont);
-        cell.setForeground(getForegroundColor(m));
-        cell.setBackground(getBackgroundColor((LogCatMessageWrapper) element));
-    }
-
-    private Color getBackgroundColor(LogCatMessageWrapper wrapper) {
-        return (wrapper.isHighlight() | wrapper.isSearchHightlight()) ? HIGHLITH_MSG_BACKGROUND_COLOR
-            : NORMAL_MSG_BACKGROUND_COLOR;
+        cell.setForeground(getForegroundColor(mStore.getLogLevel(row)));
+        cell.setBackground(mStore.isMarked(row) ? HIGHLITH_MSG_BACKGROUND_COLOR
+            : NORMAL_MSG_BACKGROUND_COLOR);
     }
 
-    private Color getForegroundColor(LogCatMessage m) {
-        LogLevel l = m.getLogLevel();
+    private Color getForegroundColor(LogLevel l) {
 
         if (l.equals(LogLevel.VERBOSE)) {
             return VERBOSE_MSG_COLOR;
@@ -137,12 +152,15 @@ public final class LogCatMessageLabelProvider extends ColumnLabelProvider {
     /**
      * Obtain the tool tip to show for a particular logcat message.
      * We display a tool tip only for messages longer than the width set by
-     * {@link #setMinimumLengthForToolTips(int)}.
+     * {@link #setMinimumLengthForToolTips(int)}, or of several lines.
      */
     @Override
     public String getToolTipText(Object element) {
-        String text = element.toString();
-        if (text.length() > mWrapWidth) {
+        if (!(element instanceof Long) || mStore == null) {
+            return null;
+        }
+        String text = mStore.getLogCatMessage(((Long) element).longValue()).toString();
+        if (text.length() > mWrapWidth || text.indexOf('\n') >= 0) {
             return text;
         } else {
             return null;
@@ -16,22 +16,37 @@
 
 package com.logcat.offline.view.ddmuilib.logcat;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.logcat.LogCatMessage;
+import com.android.ddmuilib.logcat.LogCatSymbolTable;
 import com.logcat.offline.UIThread;
 
 /**
@@ -43,29 +58,35 @@ public final class LogCatMessageParser {
     
     private static LogCatMessageParser logCatMessageParser;
 
+    /** Where the last log file loaded into each panel ends, see {@link #getLoadEnd(int, File)}. */
+    private final Map<Integer, FilePosition> mLoadEnds = new HashMap<Integer, FilePosition>();
+
+    /**
+     * The dumpstate file the panels show and its sections, see
+     * {@link #getDumpstateSections(File)}. Only the last one parsed is kept, and none
+     * once a panel loads another file.
+     */
+    private File mDumpstateFile;
+    private List<DumpstateSection> mDumpstateSections;
+
+    /**
+     * Preference holding the definitions of the custom log formats, see
+     * {@link LogFormats}.
+     */
+    public static final String CUSTOM_FORMATS_PREFKEY = "logcat.formats.custom";
+
     /**
-     * This pattern is meant to parse the first line of a log message with the option
-     * 'logcat -v long'. The first line represents the date, tag, severity, etc.. while the
-     * following lines are the message (can be several lines).<br>
-     * This first line looks something like:<br>
-     * {@code "[ 00-00 00:00:00.000 <pid>:0x<???> <severity>/<tag>]"}
-     * <br>
-     * Note: severity is one of V, D, I, W, E, A? or F. However, there doesn't seem to be
-     *       a way to actually generate an A (assert) message. Log.wtf is supposed to generate
-     *       a message with severity A, however it generates the undocumented F level. In
-     *       such a case, the parser will change the level from F to A.<br>
-     * Note: the fraction of second value can have any number of digit.<br>
-     * Note: the tag should be trimmed as it may have spaces at the end.
+     * Preference holding the path of the event-log-tags file that names the events of
+     * binary logs, see {@link #loadEventLogTags(String)}.
      */
-    private static final Pattern sLogHeaderPattern = Pattern.compile(
-            "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
-          + "\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$");
+    public static final String EVENT_LOG_TAGS_PREFKEY = "logcat.binary.eventlogtags";
+
+    /** Names of the events of binary logs, or null. */
+    private volatile EventLogTags mEventLogTags;
 
-	private enum PatternType {
-		LOGCAT_BRIEF, LOGCAT_V_LONG, LOGCAT_V_TIME, LOGCAT_V_THREADTIME, DDMS_SAVE_FORMAT,
-		LOGCAT_V_PROCESS, LOGCAT_V_TAG, LOGCAT_V_THREAD,
-		UNKNOWN,
-	};
+    /** Formats files are parsed in, replaced when the custom formats change. */
+    private volatile LogFormats mFormats =
+    		new LogFormats(Collections.<ILogFormat>emptyList());
 
     private LogCatMessageParser(){
     }
@@ -77,46 +98,51 @@ public final class LogCatMessageParser {
     	}
     	return logCatMessageParser;
     }
-    
-    private PatternType PatternRecognition(String str){
-    	Matcher matcher = sLogHeaderPattern.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_LONG;
-    	}
-    	matcher = p_LOGCAT_V_TIME.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_TIME;
-    	}
-    	matcher = p_LOGCAT_BRIEF.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_BRIEF;
-    	}
-    	matcher = p_LOGCAT_V_THREADTIME.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_THREADTIME;
-    	}
-    	
-    	matcher = p_LOGCAT_V_PROCESS.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_PROCESS;
-    	}
-    	matcher = p_LOGCAT_V_TAG.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_TAG;
-    	}
-    	matcher = p_LOGCAT_V_THREAD.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.LOGCAT_V_THREAD;
-    	}
-    	
-    	matcher = p_DDMS_SAVE_FORMAT.matcher(str);
-    	if (matcher.matches()) {
-    		return PatternType.DDMS_SAVE_FORMAT;
-    	}
-    	return PatternType.UNKNOWN;
+
+    /**
+     * Name the events of the binary logs loaded afterwards after the tags listed in
+     * an event-log-tags file, pulled from the device with
+     * {@code adb pull /system/etc/event-log-tags}.
+     * @return false if the file could not be read.
+     */
+    public boolean loadEventLogTags(String filePath) {
+    	try {
+    		mEventLogTags = EventLogTags.load(new File(filePath));
+    		return true;
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		return false;
+    	}
     }
- 
+
+    /**
+     * Use the custom log formats defined in a preference store, and follow the
+     * changes of their definitions. The files loaded afterwards are parsed with them.
+     */
+    public void loadCustomFormats(final IPreferenceStore store) {
+    	mFormats = new LogFormats(LogFormats.parseCustomFormats(
+    			store.getString(CUSTOM_FORMATS_PREFKEY)));
+    	store.addPropertyChangeListener(new IPropertyChangeListener() {
+    		@Override
+    		public void propertyChange(PropertyChangeEvent event) {
+    			if (event.getProperty().equals(CUSTOM_FORMATS_PREFKEY)) {
+    				mFormats = new LogFormats(LogFormats.parseCustomFormats(
+    						store.getString(CUSTOM_FORMATS_PREFKEY)));
+    			}
+    		}
+    	});
+    }
+    
     public void parseLogFile(String filePath, int panelID){
+    	parseLogFile(filePath, panelID, new LogCatLoadMonitor());
+    }
+
+    /**
+     * Parse a log file and deliver its messages to the listeners in batches, as soon
+     * as they are parsed, reporting the progress to {@code monitor}. Nothing more is
+     * delivered once the load gets canceled.
+     */
+    public void parseLogFile(String filePath, int panelID, LogCatLoadMonitor monitor){
     	if (filePath == null || "".equals(filePath)){
     		return;
     	}
@@ -124,439 +150,849 @@ public final class LogCatMessageParser {
     	if (!file.exists()){
     		return;
     	}
+    	setDumpstateSections(null, null);
     	System.gc();
 		try {
-            InputStreamReader isr = new InputStreamReader(new FileInputStream(file), "UTF-8");
-            BufferedReader br = new BufferedReader(isr);
-            List<String> linesList = new ArrayList<String>();
-			PatternType logType = PatternType.UNKNOWN;
-			while (br.ready()){
-				String strLine = br.readLine().trim();
-				
-				if(logType == PatternType.UNKNOWN){
-					logType = PatternRecognition(strLine);
-				}
-				if(logType != PatternType.UNKNOWN
-						&& strLine.length() > 0){
-					linesList.add(strLine);
+			FilePosition end = null;
+			if (BinaryLogReader.isBinaryLog(file)) {
+				// a binary log is not followed either
+				parseBinaryLog(file, new MessagePublisher(panelID, file, monitor), monitor);
+			} else if (LogFileOpener.isCompressed(file)) {
+				// a compressed file can not be followed, its load has no end position
+				ILineReader reader = LogFileOpener.open(file);
+				try {
+					monitor.beginFile(file.getName(), reader.getInputSize());
+					parseLogStream(reader, new MessagePublisher(panelID, file, monitor), monitor);
+				} finally {
+					closeQuietly(reader);
 				}
+			} else {
+				monitor.beginFile(file.getName(), file.length());
+				end = parseLogFile(file, new MessagePublisher(panelID, file, monitor), monitor);
 			}
-			
-			List<LogCatMessage> logMessage;
-			switch (logType) {
-			case LOGCAT_V_LONG:
-				logMessage = process_LOGCAT_V_LONG(linesList);
-				break;
-
-			case LOGCAT_V_TIME:
-				logMessage = process_LOGCAT_V_TIME(linesList);
-				break;
-				
-			case LOGCAT_V_PROCESS:
-				logMessage = process_LOGCAT_V_PROCESS(linesList);
-				break;
-			case LOGCAT_V_TAG:
-				logMessage = process_LOGCAT_V_TAG(linesList);
-				break;
-			case LOGCAT_V_THREAD:
-				logMessage = process_LOGCAT_V_THREAD(linesList);
-				break;
-				
-			case LOGCAT_V_THREADTIME:
-				logMessage = process_LOGCAT_V_THREADTIME(linesList);
-				break;
-			case LOGCAT_BRIEF:
-				logMessage = process_LOGCAT_BRIEF(linesList);
-				break;
-			case DDMS_SAVE_FORMAT:
-				logMessage = process_DDMS_SAVE_LOG(linesList);
-				break;
-
-			case UNKNOWN:
-			default:
-				return;
+			synchronized (mLoadEnds) {
+				if (end != null) {
+					mLoadEnds.put(panelID, end);
+				} else {
+					mLoadEnds.remove(panelID);
+				}
 			}
-			sendMessageReceivedEvent(
-					logMessage, panelID, file);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
     }
-    
-    //I/MediaUploader(22541): No need to wake up
-    private static final Pattern p_LOGCAT_BRIEF = Pattern.compile(
-            "^([VDIWEAF])/(.*?)\\(\\s*(\\d+)\\):\\s+(.*)$");
-    private List<LogCatMessage> process_LOGCAT_BRIEF(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_BRIEF.matcher(line);
-			if (matcher.matches()) {
-				curLogLevel = LogLevel.getByLetterString(matcher.group(1));
-				curTag = matcher.group(2).trim();
-				curPid = matcher.group(3).trim();
-				if (curTag == null || curTag.equals("")){
-					continue;
-				}
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				curMesssage = matcher.group(4);
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(1).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
 
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
-    
-    //04-08 12:57:40.370    89   103 I Installer: connecting...
-    private static final Pattern p_LOGCAT_V_THREADTIME = Pattern.compile(
-            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)" 
-            + "\\s*(\\d+)\\s*(\\d+)"
-            + "\\s([VDIWEAF])\\s(.*?):\\s+(.*)$");
-    private List<LogCatMessage> process_LOGCAT_V_THREADTIME(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_V_THREADTIME.matcher(line);
-			if (matcher.matches()) {
-				curTime = matcher.group(1);
-				curPid = matcher.group(2).trim();
-				curTid = matcher.group(3).trim();
-				curLogLevel = LogLevel.getByLetterString(matcher.group(4));
-				curTag = matcher.group(5).trim();
-				if (curTag == null || curTag.equals("")){
-					continue;
-				}
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				curMesssage = matcher.group(6);
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(4).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
+    /**
+     * Size of the first chunk of a file. It is parsed and shown right away, while the
+     * following chunks, twice as large as the previous one up to the regular chunk
+     * size, are still being parsed.
+     */
+    private static final long FIRST_CHUNK_SIZE = 64 * 1024;
+    /** Chunks of files are not made smaller than this, except for the first ones. */
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    /** Number of chunks per parser thread, so that threads finishing early can pick up more work. */
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int PARSER_THREADS = Runtime.getRuntime().availableProcessors();
 
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
-    
-    private static final Pattern p_LOGCAT_V_TIME = Pattern.compile(
-            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+):*" 
-          + "\\s([VDIWEAF])/(.*?)\\((\\s*\\d+)\\):\\s+(.*)$");
-	private List<LogCatMessage> process_LOGCAT_V_TIME(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_V_TIME.matcher(line);
-			if (matcher.matches()) {
-				curTime = matcher.group(1);
-				curLogLevel = LogLevel.getByLetterString(matcher.group(2));
-				curTag = matcher.group(3).trim();
-				if (curTag == null || curTag.equals("")){
-					continue;
-				}
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				curPid = matcher.group(4).trim();
-				curMesssage = matcher.group(5);
-				curTid = "";
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(2).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
+    private ExecutorService mChunkExecutor;
 
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
+    private synchronized ExecutorService getChunkExecutor() {
+    	if (mChunkExecutor == null) {
+    		mChunkExecutor = Executors.newFixedThreadPool(PARSER_THREADS, new ThreadFactory() {
+    			private int mCount;
 
-    private static final Pattern p_LOGCAT_V_PROCESS = Pattern.compile(
-            "^([VDIWEAF])\\(\\s*(\\d+)\\)\\s+(.*)$");
-	private List<LogCatMessage> process_LOGCAT_V_PROCESS(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_V_PROCESS.matcher(line);
-			if (matcher.matches()) {
-				curLogLevel = LogLevel.getByLetterString(matcher.group(1));
-				curPid = matcher.group(2).trim();
-				curMesssage = matcher.group(3);
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(1).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
+    			@Override
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "Log parser #" + (++mCount));
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    	}
+    	return mChunkExecutor;
+    }
 
-    private static final Pattern p_LOGCAT_V_TAG = Pattern.compile(
-            "^([VDIWEAF])/(.*?):\\s+(.*)$");
-	private List<LogCatMessage> process_LOGCAT_V_TAG(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_V_TAG.matcher(line);
-			if (matcher.matches()) {
-				curLogLevel = LogLevel.getByLetterString(matcher.group(1));
-				curTag = matcher.group(2).trim();
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				curMesssage = matcher.group(3);
-				curTid = "";
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(1).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
-    private static final Pattern p_LOGCAT_V_THREAD = Pattern.compile(
-    		"^([VDIWEAF])\\(\\s*(\\d+):(0x.*?)\\)"
-            + "\\s+(.*)$");
-	private List<LogCatMessage> process_LOGCAT_V_THREAD(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_LOGCAT_V_THREAD.matcher(line);
-			if (matcher.matches()) {
-				curLogLevel = LogLevel.getByLetterString(matcher.group(1));
-				curPid = matcher.group(2).trim();
-				curTid = matcher.group(3).trim();
-				curMesssage = matcher.group(4);
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(1).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
-	
-    private static final String UNKNOWN_FORMAT_TAG = "UNKNOWN_FORMAT";
-	private void addAsUnkownFormat(List<LogCatMessage> messages, String line) {
-		LogCatMessage m = new LogCatMessage(LogLevel.WARN, "", "",
-				UNKNOWN_FORMAT_TAG, "", line);
-		messages.add(m);
-	}
-	
-	//<de.gratnik@gmail.com> contribution test pattern.
-	//path: /LogcatOfflineView/test_pattern/ddms_save_format/type3.txt
-	private static final Pattern p_DDMS_SAVE_FORMAT = Pattern.compile(
-			"^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+):*"
-            + "\\s(VERBOSE|DEBUG|ERROR|WARN|INFO|ASSERT)/(.*?)\\((\\s*\\d+)\\):\\s+(.*)$");
-	private List<LogCatMessage> process_DDMS_SAVE_LOG(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		String curMesssage = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = p_DDMS_SAVE_FORMAT.matcher(line);
-			if (matcher.matches()) {
-				curTime = matcher.group(1);
-				curLogLevel = LogLevel.getByLetterString(matcher.group(2));
-				curTag = matcher.group(3).trim();
-				if (curTag == null || curTag.equals("")){
-					continue;
-				}
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				curPid = matcher.group(4).trim();
-				curMesssage = matcher.group(5);
-				curTid = "";
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(2).startsWith("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-				if (curLogLevel == null) {
-					continue;
-				}
+    /** Number of places of a file the lines voting for its format are taken from. */
+    private static final int SAMPLE_POINTS = 8;
+    /** Number of lines read at each sample point. */
+    private static final int SAMPLE_LINES = 64;
+    /**
+     * A file is parsed as a {@link MixedLogFormat} when the second most seen format
+     * gets at least one vote in this many.
+     */
+    private static final int MIXED_FORMAT_RATIO = 20;
 
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, curMesssage);
-				messages.add(m);
-			}else{
-				addAsUnkownFormat(messages, line);
-			}
-		}
-		return messages;
-	}
+    /**
+     * Detect the format of a log file. Lines sampled from the beginning, the middle
+     * and the end of the file each vote for the format they look like, and the format
+     * with the most votes wins. If another format gets a fair share of the votes too,
+     * the file is a concatenation of several captures and is parsed line by line as
+     * a {@link MixedLogFormat}.
+     * @return the offset of the first recognized line, or -1 if the format of the file
+     * is unknown. {@code type[0]} is set to the detected format.
+     */
+    private long detectFormat(File file, LogFormats formats, ILogFormat[] type)
+    		throws IOException {
+    	int[] votes = new int[formats.getAll().size()];
+    	long firstLine = -1;
+    	RandomAccessFile raf = new RandomAccessFile(file, "r");
+    	try {
+    		long size = raf.length();
+    		long sampled = 0;
+    		for (int i = 0; i < SAMPLE_POINTS && sampled < size; i++) {
+    			long position = i == 0 ? 0 : findLineStart(raf, size * i / SAMPLE_POINTS);
+    			if (position < sampled) {
+    				// small file, this line has voted already
+    				continue;
+    			}
+    			MappedLineReader reader = new MappedLineReader(file, position, -1);
+    			try {
+    				int lines = 0;
+    				while (lines < SAMPLE_LINES && reader.nextLine()) {
+    					if (reader.isLineEmpty()) {
+    						continue;
+    					}
+    					ILogFormat lineFormat = formats.detect(reader.getBuffer(),
+    							reader.getLineStart(), reader.getLineEnd());
+    					if (lineFormat != null) {
+    						votes[formats.getAll().indexOf(lineFormat)]++;
+    						if (firstLine < 0) {
+    							firstLine = reader.getLineOffset();
+    						}
+    					}
+    					// leading noise such as "--------- beginning of main" does not count
+    					if (firstLine >= 0) {
+    						lines++;
+    					}
+    				}
+    				sampled = reader.getPosition();
+    			} finally {
+    				closeQuietly(reader);
+    			}
+    		}
+    	} finally {
+    		closeQuietly(raf);
+    	}
+    	if (firstLine < 0) {
+    		type[0] = null;
+    		return -1;
+    	}
+    	type[0] = voteFormat(votes, formats);
+    	return firstLine;
+    }
 
-	private List<LogCatMessage> process_LOGCAT_V_LONG(List<String> linesList) {
-		LogLevel curLogLevel = LogLevel.WARN;
-		String curPid = "?";
-		String curTid = "?";
-		String curTag = "?";
-		String curTime = "?";
-		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
-		for (String line : linesList) {
-			if (line.length() == 0) {
-                continue;
-            }
-			Matcher matcher = sLogHeaderPattern.matcher(line);
-			if (matcher.matches()) {
-				curTime = matcher.group(1);
-				curPid = matcher.group(2);
-				curTid = matcher.group(3);
-				curLogLevel = LogLevel.getByLetterString(matcher.group(4));
-				curTag = matcher.group(5).trim();
-				/*
-				 * LogLevel doesn't support messages with severity "F".
-				 * Log.wtf() is supposed to generate "A", but generates "F".
-				 */
-				if (curLogLevel == null && matcher.group(4).equals("F")) {
-					curLogLevel = LogLevel.ASSERT;
-				}
-			} else {
-				if (curTag == null || curTag.equals("")){
-					continue;
-				}
-				if (curTag.indexOf(",") != -1){
-					curTag.replaceAll(",", "_");
-				}
-				LogCatMessage m = new LogCatMessage(curLogLevel, curPid,
-						curTid, curTag, curTime, line);
-				messages.add(m);
-			}
-		}
-		return messages;
-	}
+    /**
+     * Count the votes of the sampled lines, indexed like {@link LogFormats#getAll()}.
+     * @return the format with the most votes, or a {@link MixedLogFormat} if another
+     * format got a fair share of them too.
+     */
+    private ILogFormat voteFormat(int[] votes, LogFormats formats) {
+    	int best = 0;
+    	int second = -1;
+    	for (int candidate = 1; candidate < votes.length; candidate++) {
+    		if (votes[candidate] > votes[best]) {
+    			second = best;
+    			best = candidate;
+    		} else if (second < 0 || votes[candidate] > votes[second]) {
+    			second = candidate;
+    		}
+    	}
+    	int secondVotes = votes[second];
+    	if (secondVotes > 1 && secondVotes * MIXED_FORMAT_RATIO >= votes[best]) {
+    		return new MixedLogFormat(formats);
+    	}
+    	return formats.getAll().get(best);
+    }
+
+    /**
+     * Parse a log that can only be read once from start to end, such as a compressed
+     * file. The format is voted on by the lines at the head of the log, which are kept
+     * until it is known, and the rest of the log is parsed as it is read.
+     */
+    private void parseLogStream(ILineReader reader, MessagePublisher publisher,
+    		LogCatLoadMonitor monitor) throws IOException {
+    	LogFormats formats = mFormats;
+    	int[] votes = new int[formats.getAll().size()];
+    	List<byte[]> head = new ArrayList<byte[]>();
+    	int recognized = 0;
+    	boolean more;
+    	while ((more = reader.nextLine()) && recognized < SAMPLE_POINTS * SAMPLE_LINES) {
+    		if (reader.isLineEmpty()) {
+    			continue;
+    		}
+    		byte[] buf = reader.getBuffer();
+    		int start = reader.getLineStart();
+    		int end = reader.getLineEnd();
+    		ILogFormat lineFormat = formats.detect(buf, start, end);
+    		if (lineFormat != null) {
+    			votes[formats.getAll().indexOf(lineFormat)]++;
+    		}
+    		// leading noise such as "--------- beginning of main" does not count
+    		if (lineFormat != null || !head.isEmpty()) {
+    			head.add(Arrays.copyOfRange(buf, start, end));
+    			recognized++;
+    		}
+    	}
+    	if (head.isEmpty()) {
+    		// unknown format
+    		return;
+    	}
+    	ILogFormat format = voteFormat(votes, formats);
+
+    	ProgressReporter progress = new ProgressReporter(monitor, 0);
+    	ParseState state = new ParseState(new LogCatSymbolTable(),
+    			publisher.mFile.lastModified(),
+    			getEventDecoder(publisher.mFile, publisher.mPanelID));
+    	for (byte[] line : head) {
+    		format.parseLine(line, 0, line.length, state, publisher.getPending());
+    	}
+    	publisher.publishIfFull();
+    	// the line that ended the vote has been read but not parsed yet
+    	while (more && !monitor.isCanceled()) {
+    		progress.lineRead(reader);
+    		if (!reader.isLineEmpty()) {
+    			format.parseLine(reader.getBuffer(), reader.getLineStart(),
+    					reader.getLineEnd(), state, publisher.getPending());
+    			publisher.publishIfFull();
+    		}
+    		more = reader.nextLine();
+    	}
+    	progress.flush(reader);
+    	if (monitor.isCanceled()) {
+    		return;
+    	}
+    	state.endRecord(publisher.getPending());
+    	publisher.flush();
+    	publisher.finish(monitor);
+    }
+
+    /**
+     * The event-log-tags file loaded with {@link #loadEventLogTags(String)}, or else
+     * the one next to the log, if any.
+     * @return the tags, or null if there is none.
+     */
+    private EventLogTags getEventLogTags(File file) {
+    	EventLogTags tags = mEventLogTags;
+    	File tagsFile = new File(file.getAbsoluteFile().getParentFile(), EventLogTags.FILE_NAME);
+    	if (tags == null && tagsFile.isFile()) {
+    		try {
+    			tags = EventLogTags.load(tagsFile);
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
+    	return tags;
+    }
+
+    /**
+     * The decoder of the values of the events of a log loaded in the events panel,
+     * see {@link ParseState#events}.
+     * @return the decoder, or null for the other panels.
+     */
+    private EventDecoder getEventDecoder(File file, int panelID) {
+    	if (panelID != UIThread.PANEL_ID_EVENTS) {
+    		return null;
+    	}
+    	return new EventDecoder(getEventLogTags(file));
+    }
+
+    /**
+     * Parse a binary log written by {@code logcat -B}, see {@link BinaryLogReader}.
+     * Events are named after the tags of {@link #getEventLogTags(File)}. Entries are
+     * read up to the end of the log or up to the first corrupt one.
+     */
+    private void parseBinaryLog(File file, MessagePublisher publisher,
+    		LogCatLoadMonitor monitor) throws IOException {
+    	EventLogTags tags = getEventLogTags(file);
+    	ParseState state = new ParseState(new LogCatSymbolTable(), file.lastModified(), null);
+    	BinaryLogReader reader = new BinaryLogReader(file, state,
+    			tags != null ? tags : EventLogTags.getDefault(),
+    			publisher.mPanelID == UIThread.PANEL_ID_EVENTS);
+    	try {
+    		monitor.beginFile(file.getName(), reader.getInputSize());
+    		ProgressReporter progress = new ProgressReporter(monitor, 0);
+    		try {
+    			LogCatMessage m;
+    			while (!monitor.isCanceled() && (m = reader.next()) != null) {
+    				progress.entryRead(reader.getInputPosition());
+    				publisher.getPending().add(m);
+    				publisher.publishIfFull();
+    			}
+    		} catch (IOException e) {
+    			// keep the entries before the error
+    			e.printStackTrace();
+    		}
+    		progress.flush(reader.getInputPosition());
+    	} finally {
+    		closeQuietly(reader);
+    	}
+    	if (monitor.isCanceled()) {
+    		return;
+    	}
+    	publisher.flush();
+    	publisher.finish(monitor);
+    }
+
+    /**
+     * Parse a whole log file. Once its format is detected, the file is split in newline
+     * aligned chunks which are parsed in parallel. The messages of each chunk are
+     * published in file order as soon as the chunks before it are done.
+     * @return where the parsed part of the file ends, or null if the format was not
+     * recognized or the load was canceled.
+     */
+    private FilePosition parseLogFile(File file, MessagePublisher publisher,
+    		LogCatLoadMonitor monitor) throws IOException {
+    	ILogFormat[] type = new ILogFormat[1];
+    	long firstLine = detectFormat(file, mFormats, type);
+    	if (firstLine < 0) {
+    		return null;
+    	}
+    	ILogFormat format = type[0];
+
+    	List<LogChunk> chunks = splitIntoChunks(file, firstLine, format,
+    			new LogCatSymbolTable(), file.lastModified(),
+    			getEventDecoder(file, publisher.mPanelID), monitor);
+    	LogChunk last = chunks.get(chunks.size() - 1);
+    	if (chunks.size() == 1) {
+    		last.call();
+    		last.mState.endRecord(last.mMessages);
+    		publisher.publish(last.mMessages);
+    		publisher.finish(monitor);
+    		return monitor.isCanceled() ? null
+    				: new FilePosition(file, format, last.mEnd, last.mState, monitor);
+    	}
+
+    	List<Future<LogChunk>> results = new ArrayList<Future<LogChunk>>(chunks.size());
+    	for (LogChunk chunk : chunks) {
+    		results.add(getChunkExecutor().submit(chunk));
+    	}
+
+    	ParseState state = null;
+    	try {
+    		for (Future<LogChunk> result : results) {
+    			LogChunk chunk = result.get();
+    			if (monitor.isCanceled()) {
+    				cancelAll(results);
+    				return null;
+    			}
+    			// lines at the top of a chunk belong to the last record of the previous ones
+    			List<LogCatMessage> orphans = new ArrayList<LogCatMessage>();
+    			for (byte[] line : chunk.mOrphans) {
+    				format.parseLine(line, 0, line.length, state, orphans);
+    			}
+    			if (chunk.mParsed || state == null) {
+    				if (state != null) {
+    					state.endRecord(orphans);
+    				}
+    				state = chunk.mState;
+    			}
+    			publisher.publish(orphans);
+    			publisher.publish(chunk.mMessages);
+    		}
+    		List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+    		state.endRecord(messages);
+    		publisher.publish(messages);
+    		publisher.finish(monitor);
+    		return new FilePosition(file, format, last.mEnd, state, monitor);
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		cancelAll(results);
+    		return null;
+    	} catch (ExecutionException e) {
+    		cancelAll(results);
+    		if (e.getCause() instanceof IOException) {
+    			throw (IOException) e.getCause();
+    		}
+    		throw new RuntimeException(e.getCause());
+    	}
+    }
+
+    private void cancelAll(List<Future<LogChunk>> results) {
+    	for (Future<LogChunk> result : results) {
+    		result.cancel(true);
+    	}
+    }
+
+    /**
+     * Split {@code [start, file size)} in chunks that all begin on a line start. The
+     * first chunks are small and grow until they reach the regular chunk size.
+     */
+    private List<LogChunk> splitIntoChunks(File file, long start, ILogFormat format,
+    		LogCatSymbolTable symbols, long timeReference, EventDecoder events,
+    		LogCatLoadMonitor monitor) throws IOException {
+    	List<LogChunk> chunks = new ArrayList<LogChunk>();
+    	RandomAccessFile raf = new RandomAccessFile(file, "r");
+    	try {
+    		long size = raf.length();
+    		long chunkSize = Math.max(MIN_CHUNK_SIZE,
+    				(size - start) / (PARSER_THREADS * CHUNKS_PER_THREAD));
+    		long nextSize = Math.min(FIRST_CHUNK_SIZE, chunkSize);
+    		while (start < size) {
+    			long end = start + nextSize >= size ? size : findLineStart(raf, start + nextSize);
+    			chunks.add(new LogChunk(file, start, end, format, chunks.isEmpty(),
+    					new ParseState(symbols, timeReference, events), monitor));
+    			start = end;
+    			nextSize = Math.min(2 * nextSize, chunkSize);
+    		}
+    	} finally {
+    		closeQuietly(raf);
+    	}
+    	return chunks;
+    }
+
+    /**
+     * Find the offset of the first line starting at or after {@code position}. Lines
+     * end as the line readers end them, with '\n', '\r' or "\r\n".
+     */
+    private long findLineStart(RandomAccessFile raf, long position) throws IOException {
+    	byte[] buffer = new byte[8192];
+    	raf.seek(position - 1);
+    	long offset = position - 1;
+    	boolean afterCR = false;
+    	int count;
+    	while ((count = raf.read(buffer)) > 0) {
+    		for (int i = 0; i < count; i++) {
+    			if (afterCR) {
+    				return buffer[i] == '\n' ? offset + i + 1 : offset + i;
+    			}
+    			if (buffer[i] == '\n') {
+    				return offset + i + 1;
+    			}
+    			afterCR = buffer[i] == '\r';
+    		}
+    		offset += count;
+    	}
+    	return offset;
+    }
+
+    /**
+     * A newline aligned region of a log file, parsed on its own by one of the
+     * parser threads.
+     */
+    private final class LogChunk implements Callable<LogChunk> {
+    	private final File mFile;
+    	private final long mStart;
+    	private final long mEnd;
+    	private final ILogFormat mFormat;
+    	private final boolean mFirst;
+    	private final LogCatLoadMonitor mMonitor;
+
+    	private final List<LogCatMessage> mMessages = new ArrayList<LogCatMessage>();
+    	/**
+    	 * Lines preceding the first line of this chunk that starts a record, such as the
+    	 * first header of a -v long log. They continue the last record of the previous
+    	 * chunks, so they are parsed while stitching the chunks together.
+    	 */
+    	private final List<byte[]> mOrphans = new ArrayList<byte[]>();
+    	/** Whether this chunk has lines of its own past {@link #mOrphans}. */
+    	private boolean mParsed;
+    	private final ParseState mState;
+
+    	LogChunk(File file, long start, long end, ILogFormat format, boolean first,
+    			ParseState state, LogCatLoadMonitor monitor) {
+    		mFile = file;
+    		mStart = start;
+    		mEnd = end;
+    		mFormat = format;
+    		mFirst = first;
+    		mState = state;
+    		mMonitor = monitor;
+    	}
+
+    	@Override
+    	public LogChunk call() throws IOException {
+    		MappedLineReader reader = new MappedLineReader(mFile, mStart, mEnd);
+    		ProgressReporter progress = new ProgressReporter(mMonitor, mStart);
+    		try {
+    			// Every line is turned into a message as soon as it is read, so only the
+    			// resulting messages are held in memory, never the raw lines of the file.
+    			// The last record is left open, the next chunk may have more of its lines.
+    			mParsed = mFirst;
+    			while (!mMonitor.isCanceled() && reader.nextLine()) {
+    				progress.lineRead(reader);
+    				if (reader.isLineEmpty()) {
+    					continue;
+    				}
+    				byte[] buf = reader.getBuffer();
+    				int start = reader.getLineStart();
+    				int end = reader.getLineEnd();
+    				if (!mParsed) {
+    					if (!mFormat.detect(buf, start, end)) {
+    						mOrphans.add(Arrays.copyOfRange(buf, start, end));
+    						continue;
+    					}
+    					mParsed = true;
+    				}
+    				mFormat.parseLine(buf, start, end, mState, mMessages);
+    			}
+    		} finally {
+    			progress.flush(reader);
+    			closeQuietly(reader);
+    		}
+    		return this;
+    	}
+    }
+
+    /**
+     * Forwards the progress of an {@link ILineReader} to a {@link LogCatLoadMonitor}
+     * once every {@link #LINES_PER_REPORT} lines, so that the monitor is not contended.
+     */
+    private static final class ProgressReporter {
+    	private static final int LINES_PER_REPORT = 4096;
+
+    	private final LogCatLoadMonitor mMonitor;
+    	private long mReported;
+    	private int mLines;
+
+    	ProgressReporter(LogCatLoadMonitor monitor, long start) {
+    		mMonitor = monitor;
+    		mReported = start;
+    	}
+
+    	void lineRead(ILineReader reader) {
+    		if (++mLines == LINES_PER_REPORT) {
+    			flush(reader);
+    		}
+    	}
+
+    	void flush(ILineReader reader) {
+    		flush(reader.getInputPosition());
+    	}
+
+    	/** A binary log entry was read, {@code position} is the input position after it. */
+    	void entryRead(long position) {
+    		if (++mLines == LINES_PER_REPORT) {
+    			flush(position);
+    		}
+    	}
+
+    	void flush(long position) {
+    		mMonitor.worked(position - mReported, mLines);
+    		mReported = position;
+    		mLines = 0;
+    	}
+    }
+
+    /**
+     * Delivers the messages of a file to the listeners in batches. The first batch
+     * replaces whatever the panel showed, the following ones are appended to it.
+     * <p/>
+     * Sequential parsers add their messages to {@link #getPending()}, which is
+     * published each time it holds a batch, batches growing from
+     * {@link #FIRST_BATCH_SIZE} to {@link #MAX_BATCH_SIZE} messages.
+     */
+    private final class MessagePublisher {
+    	private static final int FIRST_BATCH_SIZE = 1024;
+    	private static final int MAX_BATCH_SIZE = 64 * 1024;
+
+    	private final int mPanelID;
+    	private final File mFile;
+    	private final LogCatLoadMonitor mLoad;
+    	private boolean mStarted;
+    	private List<LogCatMessage> mPending = new ArrayList<LogCatMessage>();
+    	private int mBatchSize = FIRST_BATCH_SIZE;
+
+    	MessagePublisher(int panelID, File file, LogCatLoadMonitor load) {
+    		mPanelID = panelID;
+    		mFile = file;
+    		mLoad = load;
+    	}
+
+    	void publish(List<LogCatMessage> messages) {
+    		if (messages.isEmpty()) {
+    			return;
+    		}
+    		if (mStarted) {
+    			sendMessageAppendedEvent(messages, mPanelID, mFile, mLoad);
+    		} else {
+    			sendMessageReceivedEvent(messages, mPanelID, mFile, mLoad);
+    			mStarted = true;
+    		}
+    	}
+
+    	List<LogCatMessage> getPending() {
+    		return mPending;
+    	}
+
+    	void publishIfFull() {
+    		if (mPending.size() >= mBatchSize) {
+    			flush();
+    			mBatchSize = Math.min(2 * mBatchSize, MAX_BATCH_SIZE);
+    		}
+    	}
+
+    	void flush() {
+    		if (!mPending.isEmpty()) {
+    			publish(mPending);
+    			mPending = new ArrayList<LogCatMessage>();
+    		}
+    	}
+
+    	/** A file without any message still replaces the content of the panel. */
+    	void finish(LogCatLoadMonitor monitor) {
+    		if (!mStarted && !monitor.isCanceled()) {
+    			sendMessageReceivedEvent(new ArrayList<LogCatMessage>(), mPanelID, mFile, mLoad);
+    			mStarted = true;
+    		}
+    	}
+    }
+
+    private void closeQuietly(Closeable c) {
+    	if (c == null) {
+    		return;
+    	}
+    	try {
+    		c.close();
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    }
+
+    /**
+     * What a line needs to know about the lines before it. In {@code logcat -v long},
+     * a header line owns all the message lines that follow it. In a mixed log, a line
+     * that matches no format continues the last recognized one.
+     * <p/>
+     * The last message parsed is held as the current record until the next message
+     * starts, so that the lines that follow it without being in the format of the
+     * log, such as the frames of a stack trace, are added to it rather than shown as
+     * messages of their own. Whoever parses the last line of a log must
+     * {@link #endRecord(List) end} its record.
+     */
+    static final class ParseState {
+    	/**
+    	 * Lines a record may have past its first one. A log entry holds a few KB of
+    	 * text at most, the lines past this many start a record of their own so that a
+    	 * long run of lines of unknown format does not become a single message.
+    	 */
+    	static final int MAX_RECORD_LINES = 4096;
+
+    	/** Dictionary of the tags of the messages of the file. */
+    	final LogCatSymbolTable symbols;
+    	final SymbolCache tags;
+    	final TimestampDecoder times;
+    	/**
+    	 * Decoder of the values of the events, which are decoded as their records end,
+    	 * or null if the log is not one of the events buffer.
+    	 */
+    	final EventDecoder events;
+    	/** Format of the last recognized line of a mixed log, null before the first one. */
+    	ILogFormat lastFormat;
+    	LogLevel logLevel = LogLevel.WARN;
+    	String pid = "?";
+    	String tid = "?";
+    	String tag = "?";
+    	String time = "?";
+    	/** The current record, or null. */
+    	private LogCatMessage mRecord;
+    	/** Text of the current record once it has more than one line, or null. */
+    	private StringBuilder mRecordText;
+    	private int[] mLineStarts = new int[8];
+    	private int mLineCount;
+
+    	/**
+    	 * @param timeReference the last modification time of the file, which tells the
+    	 * year of its time stamps, see {@link TimestampDecoder}.
+    	 * @param events see {@link #events}
+    	 */
+    	ParseState(LogCatSymbolTable symbols, long timeReference, EventDecoder events) {
+    		this.symbols = symbols;
+    		this.events = events;
+    		tags = new SymbolCache(symbols);
+    		times = new TimestampDecoder(timeReference);
+    	}
+
+    	LogCatMessage newMessage(LogLevel level, String pid, String tid, String tag,
+    			String time, String msg) {
+    		return new LogCatMessage(level, symbols, LogCatMessage.parseId(pid),
+    				LogCatMessage.parseId(tid), tags.intern(tag), time, times.decode(time), msg);
+    	}
+
+    	/** End the current record and make {@code m} the new one. */
+    	void startRecord(LogCatMessage m, List<LogCatMessage> messages) {
+    		endRecord(messages);
+    		mRecord = m;
+    	}
+
+    	/**
+    	 * Add a line to the text of the current record.
+    	 * @return false if there is no current record, or if it has
+    	 * {@link #MAX_RECORD_LINES} lines already.
+    	 */
+    	boolean continueRecord(String line) {
+    		if (mRecord == null) {
+    			return false;
+    		}
+    		if (mRecordText == null) {
+    			mRecordText = new StringBuilder(mRecord.getMessage());
+    			mLineCount = 0;
+    		} else if (mLineCount == MAX_RECORD_LINES) {
+    			return false;
+    		}
+    		if (mLineCount == mLineStarts.length) {
+    			mLineStarts = Arrays.copyOf(mLineStarts, 2 * mLineCount);
+    		}
+    		mRecordText.append('\n');
+    		mLineStarts[mLineCount++] = mRecordText.length();
+    		mRecordText.append(line);
+    		return true;
+    	}
+
+    	/**
+    	 * Add the current record, if any, to {@code messages}, with its values if it is
+    	 * an event.
+    	 */
+    	void endRecord(List<LogCatMessage> messages) {
+    		if (mRecord == null) {
+    			return;
+    		}
+    		LogCatMessage m = mRecord;
+    		if (mRecordText != null) {
+    			m = m.withLines(mRecordText.toString(), Arrays.copyOf(mLineStarts, mLineCount));
+    			mRecordText = null;
+    		}
+    		messages.add(events == null ? m : events.decode(m));
+    		mRecord = null;
+    	}
+
+    	/**
+    	 * Copy of the state, with caches of its own so that it may be used by another
+    	 * thread. The current record, which belongs to the messages parsed with this
+    	 * state, is not copied.
+    	 */
+    	ParseState copy() {
+    		ParseState state = new ParseState(symbols, times.getReference(), events);
+    		state.lastFormat = lastFormat;
+    		state.logLevel = logLevel;
+    		state.pid = pid;
+    		state.tid = tid;
+    		state.tag = tag;
+    		state.time = time;
+    		return state;
+    	}
+    }
+
+    /**
+     * A position in a log file, with the format of the file and the state of the
+     * parser there, from which the lines appended to the file later on can be parsed.
+     * Those lines are delivered as part of the load the position was reached by.
+     */
+    static final class FilePosition {
+    	final File mFile;
+    	final ILogFormat mFormat;
+    	final LogCatLoadMonitor mLoad;
+    	long mOffset;
+    	ParseState mState;
+
+    	FilePosition(File file, ILogFormat format, long offset, ParseState state,
+    			LogCatLoadMonitor load) {
+    		mFile = file;
+    		mFormat = format;
+    		mOffset = offset;
+    		mState = state;
+    		mLoad = load;
+    	}
+    }
+
+    /**
+     * Where the last load of {@code file} into a panel stopped.
+     * @return a position that belongs to the caller, or null if the last file loaded
+     * into the panel is another one, or if its load is not complete.
+     */
+    FilePosition getLoadEnd(int panelID, File file) {
+    	synchronized (mLoadEnds) {
+    		FilePosition end = mLoadEnds.get(panelID);
+    		if (end == null || !end.mFile.equals(file)) {
+    			return null;
+    		}
+    		return new FilePosition(end.mFile, end.mFormat, end.mOffset, end.mState.copy(),
+    				end.mLoad);
+    	}
+    }
+
+    /**
+     * Parse the complete lines appended to a file after {@code position}, deliver
+     * their messages to the listeners of the panel through
+     * {@link ILogCatMessageEventListener#messageAppended}, and move the position past
+     * them. A line still being written is left for the next call. A file shorter
+     * than the position has been truncated, it is read again from its beginning.
+     * @return the number of bytes parsed.
+     */
+    long parseAppended(FilePosition position, int panelID) throws IOException {
+    	long length = position.mFile.length();
+    	if (length < position.mOffset) {
+    		position.mOffset = 0;
+    		position.mState = new ParseState(position.mState.symbols, 0,
+    				position.mState.events);
+    	}
+    	position.mState.times.setReference(position.mFile.lastModified());
+    	if (length == position.mOffset) {
+    		return 0;
+    	}
+
+    	long end;
+    	RandomAccessFile raf = new RandomAccessFile(position.mFile, "r");
+    	try {
+    		end = findLastLineEnd(raf, position.mOffset, length);
+    	} finally {
+    		closeQuietly(raf);
+    	}
+    	if (end <= position.mOffset) {
+    		return 0;
+    	}
+
+    	List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+    	MappedLineReader reader = new MappedLineReader(position.mFile, position.mOffset, end);
+    	try {
+    		while (reader.nextLine()) {
+    			if (!reader.isLineEmpty()) {
+    				position.mFormat.parseLine(reader.getBuffer(), reader.getLineStart(),
+    						reader.getLineEnd(), position.mState, messages);
+    			}
+    		}
+    	} finally {
+    		closeQuietly(reader);
+    	}
+    	// a record split across two polls shows as two messages
+    	position.mState.endRecord(messages);
+    	long parsed = end - position.mOffset;
+    	position.mOffset = end;
+    	if (!messages.isEmpty()) {
+    		sendMessageAppendedEvent(messages, panelID, position.mFile, position.mLoad);
+    	}
+    	return parsed;
+    }
+
+    /**
+     * Find the end of the last complete line of {@code [start, end)}. A line ending
+     * with '\r' is complete, the '\n' that may follow it is an empty line of the next
+     * call.
+     * @return the offset following its '\n' or '\r', or {@code start} if there is none.
+     */
+    private long findLastLineEnd(RandomAccessFile raf, long start, long end) throws IOException {
+    	byte[] buffer = new byte[8192];
+    	long position = end;
+    	while (position > start) {
+    		int count = (int) Math.min(buffer.length, position - start);
+    		position -= count;
+    		raf.seek(position);
+    		raf.readFully(buffer, 0, count);
+    		for (int i = count - 1; i >= 0; i--) {
+    			if (buffer[i] == '\n' || buffer[i] == '\r') {
+    				return position + i + 1;
+    			}
+    		}
+    	}
+    	return start;
+    }
 
 	public void parseLogFolder(String folderPath){
+		parseLogFolder(folderPath, new LogCatLoadMonitor());
+	}
+
+	public void parseLogFolder(String folderPath, LogCatLoadMonitor monitor){
     	if (folderPath == null || "".equals(folderPath)){
     		return;
     	}
@@ -568,12 +1004,15 @@ public final class LogCatMessageParser {
     	System.gc();
     	File[] files = fileFolder.listFiles();
     	for(File file : files){
+    		if (monitor.isCanceled()){
+    			break;
+    		}
     		if (file.getName().toLowerCase().indexOf("main") != -1){
-    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_MAIN);
+    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_MAIN, monitor);
     		} else if (file.getName().toLowerCase().indexOf("event") != -1){
-    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_EVENTS);
+    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_EVENTS, monitor);
     		} else if (file.getName().toLowerCase().indexOf("radio") != -1){
-    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_RADIO);
+    			parseLogFile(file.getAbsolutePath(), UIThread.PANEL_ID_RADIO, monitor);
     		}
     	}
     }
@@ -590,14 +1029,32 @@ public final class LogCatMessageParser {
         mLogCatMessageListeners.remove(l);
     }
 
-    private void sendMessageReceivedEvent(List<LogCatMessage> messages, int panelID, File file) {
+    private void sendMessageReceivedEvent(List<LogCatMessage> messages, int panelID, File file,
+            LogCatLoadMonitor load) {
+        for (ILogCatMessageEventListener l : mLogCatMessageListeners) {
+            l.messageReceived(messages, panelID, file, load);
+        }
+    }
+
+    private void sendMessageAppendedEvent(List<LogCatMessage> messages, int panelID, File file,
+            LogCatLoadMonitor load) {
         for (ILogCatMessageEventListener l : mLogCatMessageListeners) {
-            l.messageReceived(messages, panelID, file);
+            l.messageAppended(messages, panelID, file, load);
         }
     }
 
     //test with android 4.0
 	public void parseDumpstateFile(String filePath) {
+		parseDumpstateFile(filePath, new LogCatLoadMonitor());
+	}
+
+	/**
+	 * Parse a dumpstate file, the text of a bugreport. Its SYSTEM LOG, EVENT LOG and
+	 * RADIO LOG sections are delivered to the main, events and radio panels, each
+	 * parsed by a worker thread of its own while the file is being read. The position
+	 * of every section is recorded, see {@link #getDumpstateSections(File)}.
+	 */
+	public void parseDumpstateFile(String filePath, LogCatLoadMonitor monitor) {
 		if (filePath == null || "".equals(filePath)) {
 			return;
 		}
@@ -606,75 +1063,280 @@ public final class LogCatMessageParser {
 			return;
 		}
 		System.gc();
+		ILineReader reader = null;
+		SectionWorker[] workers = new SectionWorker[3];
+		LogCatSymbolTable symbols = new LogCatSymbolTable();
+		List<DumpstateSection> sections = new ArrayList<DumpstateSection>();
 		try {
-			FileReader fr = new FileReader(file);
-			BufferedReader br = new BufferedReader(fr);
-			List<String> linesListMain = new ArrayList<String>();
-			List<String> linesListEvents = new ArrayList<String>();
-			List<String> linesListRadio = new ArrayList<String>();
-			int state = 0;
-			boolean finish = false;
-			while (br.ready()) {
-				String strLine = br.readLine().trim();
-				switch (state) {
-				case 0:
-					if (strLine.startsWith("------ SYSTEM LOG (logcat -v threadtime")) {
-						state = 1;
-					}
-					break;
-				case 1:// main
-					if (strLine.startsWith("------ EVENT LOG (logcat -b events -v threadtime")) {
-						state = 2;
-						continue;
-					}
-					linesListMain.add(strLine);
-					break;
-				case 2:// events
-					if (strLine.startsWith("------ RADIO LOG (logcat -b radio -v threadtime")) {
-						state = 3;
-						continue;
+			reader = LogFileOpener.open(file);
+			monitor.beginFile(file.getName(), reader.getInputSize());
+			ProgressReporter progress = new ProgressReporter(monitor, 0);
+			DumpstateSection section = null;
+			SectionWorker worker = null;
+			LogFormats formats = mFormats;
+			ILogFormat format = null;
+			while (!monitor.isCanceled() && reader.nextLine()) {
+				progress.lineRead(reader);
+				if (section != null && section.getStart() < 0) {
+					section.setStart(reader.getLineOffset());
+				}
+				byte[] buf = reader.getBuffer();
+				int start = reader.getLineStart();
+				int end = reader.getLineEnd();
+				if (start == end) {
+					continue;
+				}
+				// only section markers are needed as text, log lines are parsed on the bytes
+				if (buf[start] == '-' || buf[start] == '[') {
+					String line = reader.getLine();
+					Matcher matcher = sSectionPattern.matcher(line);
+					boolean header = matcher.matches();
+					if (header || (worker != null && line.startsWith("[logcat:"))) {
+						if (section != null) {
+							section.setEnd(reader.getLineOffset());
+							section = null;
+						}
+						if (worker != null) {
+							worker.endSection();
+							worker = null;
+						}
 					}
-					linesListEvents.add(strLine);
-					break;
-				case 3:// radio
-					if (strLine.startsWith("[logcat:")) {
-						state = 4;
+					if (header) {
+						if (sSectionDurationPattern.matcher(matcher.group(1)).matches()) {
+							// "------ 0.4s was the duration of 'SYSTEM LOG' ------"
+							continue;
+						}
+						section = new DumpstateSection(file, matcher.group(1), matcher.group(2));
+						sections.add(section);
+						int panelID = getSectionPanel(section);
+						if (panelID >= 0) {
+							if (workers[panelID] == null) {
+								workers[panelID] = new SectionWorker(
+										new MessagePublisher(panelID, file, monitor), symbols,
+										getEventDecoder(file, panelID), monitor);
+							}
+							worker = workers[panelID];
+							format = getSectionFormat(section.getCommand(), formats);
+						}
 						continue;
 					}
-					linesListRadio.add(strLine);
-					break;
-				case 4:// finish
-					finish = true;
-					break;
-				default:
-					assert (false);
-					break;
 				}
-
-				if (finish) {
-					break;
+				if (worker != null) {
+					worker.add(format, buf, start, end);
 				}
 			}
+			progress.flush(reader);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			closeQuietly(reader);
+			for (SectionWorker worker : workers) {
+				if (worker != null) {
+					worker.finish();
+				}
+			}
+		}
+		setDumpstateSections(monitor.isCanceled() ? null : file, sections);
+	}
+
+	private synchronized void setDumpstateSections(File file,
+			List<DumpstateSection> sections) {
+		mDumpstateFile = file;
+		mDumpstateSections = file == null ? null : sections;
+	}
+
+	/**
+	 * The sections of a dumpstate file, if it is the one the panels show.
+	 * @return the sections in file order, or null if the file is not loaded.
+	 */
+	public synchronized List<DumpstateSection> getDumpstateSections(File file) {
+		if (mDumpstateFile == null || !mDumpstateFile.equals(file)) {
+			return null;
+		}
+		return new ArrayList<DumpstateSection>(mDumpstateSections);
+	}
+
+	/**
+	 * {@code "------ NAME (command) ------"}, the header of a dumpstate section. Newer
+	 * dumpstate versions also end sections with a line of the same shape, see
+	 * {@link #sSectionDurationPattern}.
+	 */
+	private static final Pattern sSectionPattern = Pattern.compile(
+			"^------ (.*?)(?: \\((.*)\\))? ------$");
+	private static final Pattern sSectionDurationPattern = Pattern.compile(
+			"^[\\d.]+s was the duration of '.*'$");
+
+	/**
+	 * @return the panel the messages of a dumpstate section go to, or -1 if it is not
+	 * a log section shown by a panel.
+	 */
+	private static int getSectionPanel(DumpstateSection section) {
+		String command = section.getCommand();
+		if (command == null || !command.startsWith("logcat")) {
+			return -1;
+		}
+		String name = section.getName();
+		if (name.equals("SYSTEM LOG")) {
+			return UIThread.PANEL_ID_MAIN;
+		} else if (name.equals("EVENT LOG")) {
+			return UIThread.PANEL_ID_EVENTS;
+		} else if (name.equals("RADIO LOG")) {
+			return UIThread.PANEL_ID_RADIO;
+		}
+		return -1;
+	}
+
+	/**
+	 * Find the format of a log section from the {@code -v} options of its logcat
+	 * command, such as {@code "logcat -v threadtime -v printable -v uid -d *:v"}. Of the
+	 * options that only add to a format, {@code -v uid} adds a column to the lines,
+	 * the others such as {@code -v printable} leave their layout alone and are
+	 * ignored. Without a format option, every line is parsed in the format it looks
+	 * like.
+	 */
+	private static ILogFormat getSectionFormat(String command, LogFormats formats) {
+		String[] args = command.split("\\s+");
+		ILogFormat format = null;
+		boolean uid = false;
+		for (int i = 0; i + 1 < args.length; i++) {
+			if (!args[i].equals("-v")) {
+				continue;
+			}
+			if (args[i + 1].equals("uid")) {
+				uid = true;
+			} else if (format == null) {
+				format = formats.forName(args[i + 1]);
+			}
+		}
+		if (format == null) {
+			return new MixedLogFormat(formats);
+		}
+		return uid ? LogFormats.withUid(format) : format;
+	}
+
+	/**
+	 * Parses the log sections of a dumpstate file that go to one panel, on a thread of
+	 * its own. The reading thread copies the lines of the section in batches, handed
+	 * over through a bounded queue so that it never gets far ahead of the parser.
+	 */
+	private final class SectionWorker implements Runnable {
+		private static final int BATCH_LINES = 1024;
+		private static final int QUEUE_BATCHES = 4;
+
+		private final MessagePublisher mPublisher;
+		private final LogCatSymbolTable mSymbols;
+		private final long mTimeReference;
+		private final EventDecoder mEvents;
+		private final LogCatLoadMonitor mMonitor;
+		private final BlockingQueue<LineBatch> mBatches =
+				new ArrayBlockingQueue<LineBatch>(QUEUE_BATCHES);
+		private final Thread mThread;
+		private LineBatch mBatch;
 
-			if (linesListMain.size() > 0) {
-				List<LogCatMessage> logMessageMain = process_LOGCAT_V_THREADTIME(linesListMain);
-				sendMessageReceivedEvent(logMessageMain, UIThread.PANEL_ID_MAIN, file);
+		SectionWorker(MessagePublisher publisher, LogCatSymbolTable symbols,
+				EventDecoder events, LogCatLoadMonitor monitor) {
+			mPublisher = publisher;
+			mSymbols = symbols;
+			mTimeReference = publisher.mFile.lastModified();
+			mEvents = events;
+			mMonitor = monitor;
+			mThread = new Thread(this, "Dumpstate parser #" + publisher.mPanelID);
+			mThread.setDaemon(true);
+			mThread.start();
+		}
+
+		/** Queue a line of the current section, called by the reading thread. */
+		void add(ILogFormat format, byte[] buf, int start, int end) {
+			if (mBatch == null) {
+				mBatch = new LineBatch(format);
+			}
+			mBatch.mLines.add(Arrays.copyOfRange(buf, start, end));
+			if (mBatch.mLines.size() == BATCH_LINES) {
+				put(mBatch);
+				mBatch = null;
 			}
+		}
 
-			if (linesListEvents.size() > 0) {
-				List<LogCatMessage> logMessageEvents = process_LOGCAT_V_THREADTIME(linesListEvents);
-				sendMessageReceivedEvent(logMessageEvents, UIThread.PANEL_ID_EVENTS, file);
+		/** The next section parsed by this worker is not a continuation of this one. */
+		void endSection() {
+			if (mBatch != null) {
+				put(mBatch);
+				mBatch = null;
 			}
+			put(new LineBatch(null));
+		}
 
-			if (linesListRadio.size() > 0) {
-				List<LogCatMessage> logMessageRadio = process_LOGCAT_V_THREADTIME(linesListRadio);
-				sendMessageReceivedEvent(logMessageRadio, UIThread.PANEL_ID_RADIO, file);
+		/** Parse what is left and wait for the worker to be done. */
+		void finish() {
+			endSection();
+			put(LineBatch.END);
+			try {
+				mThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void put(LineBatch batch) {
+			try {
+				mBatches.put(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			ParseState state = new ParseState(mSymbols, mTimeReference, mEvents);
+			while (true) {
+				LineBatch batch;
+				try {
+					batch = mBatches.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (batch == LineBatch.END) {
+					break;
+				}
+				if (batch.mFormat == null) {
+					if (!mMonitor.isCanceled()) {
+						state.endRecord(mPublisher.getPending());
+					}
+					state = new ParseState(mSymbols, mTimeReference, mEvents);
+					continue;
+				}
+				if (mMonitor.isCanceled()) {
+					// keep taking the batches so the reading thread is not blocked
+					continue;
+				}
+				try {
+					for (byte[] line : batch.mLines) {
+						batch.mFormat.parseLine(line, 0, line.length, state,
+								mPublisher.getPending());
+					}
+					mPublisher.publishIfFull();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+			if (!mMonitor.isCanceled()) {
+				mPublisher.flush();
+				mPublisher.finish(mMonitor);
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+	}
+
+	/** Lines of a log section, or with a null format, the end of a section. */
+	private static final class LineBatch {
+		static final LineBatch END = new LineBatch(null);
 
+		final ILogFormat mFormat;
+		final List<byte[]> mLines = new ArrayList<byte[]>();
+
+		LineBatch(ILogFormat format) {
+			mFormat = format;
+		}
 	}
 }
@@ -19,10 +19,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.dialogs.InputDialog;
@@ -84,7 +87,6 @@ import com.android.ddmuilib.logcat.ILogCatMessageSelectionListener;
 import com.android.ddmuilib.logcat.LogCatFilterContentProvider;
 import com.android.ddmuilib.logcat.LogCatFilterLabelProvider;
 import com.android.ddmuilib.logcat.LogCatMessage;
-import com.android.ddmuilib.logcat.LogCatViewerFilter;
 
 /**
  * LogCatPanel displays a table listing the logcat messages.
@@ -140,6 +142,7 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     private static final String ACTION_SHOW_PID = "Show Selected PID(s)";
     private static final String ACTION_HIDE_PID = "Hide Selected PID(s)";
     private static final String ACTION_HIGHLIGHT_PID = "High Light Selected PID(s)";
+    private static final String ACTION_FOLLOW_FILE = "Follow File";
 
     private ToolItemAction[] mLogLevelActions;
     private String[] mLogLevelIcons = { "v.png", //$NON-NLS-1S
@@ -154,6 +157,11 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     private static final int[] WEIGHTS_SHOW_FILTERS = new int[] { 15, 85 };
     private static final int[] WEIGHTS_LOGCAT_ONLY = new int[] { 0, 100 };
 
+    /** Most items of the table, the rows shown beyond them are reached by moving its window. */
+    private static final int WINDOW_SIZE = LogCatMessageContentProvider.WINDOW_SIZE;
+    /** Items from an end of the window at which the window moves. */
+    private static final int WINDOW_MARGIN = 1024;
+
     private PreferenceStore mPrefStore;
 
     private List<LogCatFilter> mLogCatFilters;
@@ -189,11 +197,36 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     private boolean mLastItemPainted = false;
 
     private LogCatMessageLabelProvider mLogCatMessageLabelProvider;
+    private LogCatMessageContentProvider mContentProvider;
+    /** Filters the rows shown pass, the selected saved filter and the live filters. */
+    private List<LogCatFilter> mAppliedFilters = new ArrayList<LogCatFilter>();
 
     private SashForm mSash;
 
     private int mPanelID;
     private String mPannelName;
+    /** File whose messages are shown, more of them may still be loading. */
+    private File mFile;
+    /** Messages of {@link #mFile}, null until a file is loaded. */
+    private LogStore mStore;
+    /** Rows of {@link #mStore} known to the table, the loading thread may have added more. */
+    private long mShownRows;
+    /**
+     * Store the messages of the file being loaded are added to by the thread of
+     * {@link #mLoad}, and the number of rows added so far. Batches of other loads are
+     * dropped. Guarded by this panel, the refresher folds the new rows into the table.
+     */
+    private LogStore mLoadingStore;
+    private LogCatLoadMonitor mLoad;
+    private long mLoadedRows;
+    /** Whether a check of the window of the table is queued, after a scroll. */
+    private boolean mWindowUpdatePending;
+    /**
+     * The pids of {@link #mPIDList}, {@link LogCatMessage#NO_ID} standing for the
+     * unknown pid, and the ids of the tags of {@link #mTagList}.
+     */
+    private Set<Integer> mPIDIds = new HashSet<Integer>();
+    private BitSet mTagIds = new BitSet();
 
     /**
      * Construct a logcat panel.
@@ -577,17 +610,17 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         }
         int index = mViewer.getTable().getSelectionIndex();
         // no select, ignore
-        List<LogCatMessageWrapper> all = getAllLogcatMessageUnfiltered();
-        for (int i = index; i > 0; i--) {
-            LogCatMessageWrapper data = all.get(i - 1);
-            if (data == null) {
-                continue;
-            }
-            boolean hit = data.isHighlight() || data.isSearchHightlight();
-            if (hit) {
-                mViewer.getTable().setSelection(i - 1);
-                if (i > 5) {
-                    mViewer.getTable().setTopIndex(i - 5);
+        if (index < 0 || mContentProvider.getWindowStart() + index == 0) {
+            return;
+        }
+        // walk the marked rows back, skipping those filtered out
+        long row = mStore.previousMarkedRow(mContentProvider.getRow(index) - 1);
+        for (; row >= 0; row = mStore.previousMarkedRow(row - 1)) {
+            int i = reveal(row);
+            if (i >= 0) {
+                mViewer.getTable().setSelection(i);
+                if (i + 1 > 5) {
+                    mViewer.getTable().setTopIndex(i - 4);
                 } else {
                     mViewer.getTable().setSelection(0);
                 }
@@ -601,19 +634,19 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
             return;
         }
         int index = mViewer.getTable().getSelectionIndex();
-        List<LogCatMessageWrapper> all = getAllLogcatMessageUnfiltered();
-        for (int i = index; i < all.size() - 1; i++) {
-            LogCatMessageWrapper data = all.get(i + 1);
-            if (data == null) {
-                continue;
-            }
-            boolean hit = data.isHighlight() || data.isSearchHightlight();
-            if (hit) {
-                mViewer.getTable().setSelection(i + 1);
-                if (i > all.size() - 5) {
-                    mViewer.getTable().setSelection(all.size() - 1);
+        if (mContentProvider.getWindowStart() + index >= mContentProvider.getRowCount() - 1) {
+            return;
+        }
+        long row = mStore.nextMarkedRow(index < 0 ? 0 : mContentProvider.getRow(index) + 1);
+        for (; row >= 0; row = mStore.nextMarkedRow(row + 1)) {
+            int i = reveal(row);
+            if (i >= 0) {
+                int count = mContentProvider.getItemCount();
+                mViewer.getTable().setSelection(i);
+                if (i - 1 > count - 5) {
+                    mViewer.getTable().setSelection(count - 1);
                 } else {
-                    mViewer.getTable().setTopIndex(i + 1);
+                    mViewer.getTable().setTopIndex(i);
                 }
                 break;
             }
@@ -630,10 +663,11 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         }
 
         /* obtain list of selected messages */
-        final List<LogCatMessageWrapper> selectedMessages = getSelectedLogCatMessages();
-        if (selectedMessages == null) {
+        final long[] selectedRows = getSelectedRows();
+        if (selectedRows == null) {
             return;
         }
+        final LogStore store = mStore;
 
         /* save messages to file in a different (non UI) thread */
         Thread t = new Thread(new Runnable() {
@@ -641,8 +675,9 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
             public void run() {
                 try {
                     BufferedWriter w = new BufferedWriter(new FileWriter(fName));
-                    for (LogCatMessageWrapper m : selectedMessages) {
-                        w.append(m.getLogCatMessage().toString());
+                    // the rows of a store never change, they are read from this thread
+                    for (long row : selectedRows) {
+                        w.append(store.getLogCatMessage(row).toString());
                         w.newLine();
                     }
                     w.close();
@@ -697,56 +732,54 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         }
     }
 
-    private List<LogCatMessageWrapper> getSelectedLogCatMessages() {
-        Object input = mViewer.getInput();
-        if (input == null) {
+    /**
+     * @return the rows of {@link #mStore} selected in the table, in table order, or
+     * null if no file is shown.
+     */
+    private long[] getSelectedRows() {
+        if (mStore == null) {
             return null;
         }
         Table table = mViewer.getTable();
         int[] indices = table.getSelectionIndices();
         Arrays.sort(indices); // Table.getSelectionIndices() does not specify an order
 
-        // Get items from the table's input as opposed to getting each table item's data.
+        // Get rows from the content provider as opposed to getting each table item's data.
         // Retrieving table item's data can return NULL in case of a virtual table if the item
         // has not been displayed yet.
-        List<LogCatMessageWrapper> filteredItems = applyCurrentFilters((List<?>) input);
-        List<LogCatMessageWrapper> selectedMessages = new ArrayList<LogCatMessageWrapper>(indices.length);
+        long[] rows = new long[indices.length];
+        int count = 0;
         for (int i : indices) {
-            if (i < filteredItems.size()) {
-                LogCatMessageWrapper m = filteredItems.get(i);
-                selectedMessages.add(m);
+            if (i < mContentProvider.getItemCount()) {
+                rows[count++] = mContentProvider.getRow(i);
             }
         }
 
-        return selectedMessages;
+        return Arrays.copyOf(rows, count);
     }
 
-    private List<LogCatMessageWrapper> applyCurrentFilters(List<?> msgList) {
-        Object[] items = msgList.toArray();
-        List<LogCatMessageWrapper> filteredItems = new ArrayList<LogCatMessageWrapper>();
-        List<LogCatViewerFilter> filters = getFiltersToApply();
-
-        for (Object item : items) {
-            if (!(item instanceof LogCatMessageWrapper)) {
-                continue;
-            }
-            if (!isMessageFiltered((LogCatMessageWrapper) item, filters)) {
-                filteredItems.add((LogCatMessageWrapper) item);
+    /** Show the rows of {@link #mStore} from {@code from} to {@code to} that pass the filters. */
+    private void filterRows(long from, long to) {
+        for (long row = from; row < to; row++) {
+            if (isRowShown(row)) {
+                mContentProvider.addRow(row);
             }
         }
+    }
 
-        return filteredItems;
+    private boolean isRowShown(long row) {
+        return isRowShown(mAppliedFilters, mStore, row);
     }
 
-    private boolean isMessageFiltered(LogCatMessageWrapper msg, List<LogCatViewerFilter> filters) {
-        for (LogCatViewerFilter f : filters) {
-            if (!f.select(null, null, msg)) {
+    private static boolean isRowShown(List<LogCatFilter> filters, LogStore store, long row) {
+        for (LogCatFilter f : filters) {
+            if (!f.matches(store, row)) {
                 // message does not make it through this filter
-                return true;
+                return false;
             }
         }
 
-        return false;
+        return true;
     }
 
     private void createLogcatViewTable(Composite parent) {
@@ -793,7 +826,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
 
         mViewer.getTable().setLinesVisible(true); /* zebra stripe the table */
         mViewer.getTable().setHeaderVisible(true);
-        mViewer.setContentProvider(new LogCatMessageContentProvider());
+        mContentProvider = new LogCatMessageContentProvider();
+        mViewer.setContentProvider(mContentProvider);
         WrappingToolTipSupport.enableFor(mViewer, ToolTip.NO_RECREATE);
 
         // Set the row height to be sufficient enough to display the current font.
@@ -825,10 +859,14 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mViewer.getTable().addSelectionListener(new SelectionListener() {
             @Override
             public void widgetSelected(SelectionEvent e) {
+                long[] rows = getSelectedRows();
+                if (rows == null || rows.length == 0) {
+                    return;
+                }
                 mIsSynFromHere = true;
-                String time = getSelectedLogCatMessages().get(0).getLogCatMessage().getTime();
-                if (time != null && time.length() > 10) {// 04-08 13:13:43.851
-                    LogCatSyncManager.getInstance().syncTime(time);
+                long timestamp = mStore.getTimestamp(rows[0]);
+                if (timestamp != LogCatMessage.NO_TIMESTAMP) {
+                    LogCatSyncManager.getInstance().syncTime(timestamp);
                 }
             }
 
@@ -840,6 +878,7 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         createViewMenu();
 
         setupAutoScrollLockBehavior();
+        setupWindowScrolling();
         // initDoubleClickListener();
     }
 
@@ -866,29 +905,55 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
                     new InputDialog(Display.getCurrent().getActiveShell(), "Search and Highlight", "Find:", "", null);
                 if (inputDialog.open() == InputDialog.OK) {
                     String value = inputDialog.getValue();
-                    if (value != null && value.length() > 0) {
-                        // hight light item
-                        mViewer.getTable().setRedraw(false);
-                        List<LogCatMessageWrapper> allItems = getAllLogcatMessageUnfiltered();
-                        for (int i = 0; i < allItems.size(); i++) {
-                            LogCatMessageWrapper logCatMessageWrapper = allItems.get(i);
-                            String message = logCatMessageWrapper.getLogCatMessage().getMessage();
-                            if (message != null && message.length() > 1) {
-                                if (message.contains(value)) {
-                                    logCatMessageWrapper.setSearchHightlight(true);
-                                    mViewer.getTable().select(i);
-                                    if (i < 5) {
-                                        mViewer.getTable().setTopIndex(0);
-                                    } else if (i > allItems.size() - 5) {
-                                        mViewer.getTable().setTopIndex(allItems.size() - 1);
-                                    } else {
-                                        mViewer.getTable().setTopIndex(i - 3);
+                    if (value != null && value.length() > 0 && mStore != null) {
+                        final String text = value;
+                        new MarkScan(true) {
+                            // rows of the same body have the same verdict
+                            private final BitSet mChecked = new BitSet();
+                            private final BitSet mFound = new BitSet();
+
+                            @Override
+                            void scan(long row) {
+                                int body = mScanStore.getBodyId(row);
+                                if (!mChecked.get(body)) {
+                                    String message = mScanStore.getMessage(row);
+                                    mFound.set(body, message.length() > 1 && message.contains(text));
+                                    mChecked.set(body);
+                                }
+                                if (mFound.get(body)) {
+                                    mHits.set(row);
+                                }
+                            }
+
+                            @Override
+                            void publish() {
+                                // hight light item, hidden ones too
+                                mViewer.getTable().setRedraw(false);
+                                mStore.getSearchHits().or(mHits);
+                                // the table moves to the last hit shown, the hits around it are selected
+                                for (long row = mHits.previousSetBit(mScanRows); row >= 0; row = mHits.previousSetBit(row - 1)) {
+                                    if (reveal(row) >= 0) {
+                                        break;
                                     }
                                 }
+                                int count = mContentProvider.getItemCount();
+                                for (long row = mHits.nextSetBit(0); row >= 0; row = mHits.nextSetBit(row + 1)) {
+                                    int i = mContentProvider.indexOf(row);
+                                    if (i >= 0) {
+                                        mViewer.getTable().select(i);
+                                        if (i < 5) {
+                                            mViewer.getTable().setTopIndex(0);
+                                        } else if (i > count - 5) {
+                                            mViewer.getTable().setTopIndex(count - 1);
+                                        } else {
+                                            mViewer.getTable().setTopIndex(i - 3);
+                                        }
+                                    }
+                                }
+                                mViewer.getTable().setRedraw(true);
+                                mViewer.refresh();
                             }
-                        }
-                        mViewer.getTable().setRedraw(true);
-                        mViewer.refresh();
+                        }.start();
                     }
                 }
             }
@@ -905,15 +970,15 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mShowSelectedTag = new Action(ACTION_SHOW_TAG) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
                 mSelectedTagList = new ArrayList<String>();
                 mSelectedTagList.add(LogCatFilter.SHOW_KEYWORD);
                 setText(getText() + " : ");
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String tag = item.getLogCatMessage().getTag();
+                for (long row : selectedRows) {
+                    String tag = mStore.getTag(row);
                     if (!mSelectedTagList.contains(tag)) {
                         setText(getText() + tag + ", ");
                         mSelectedTagList.add(tag);
@@ -927,15 +992,15 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mHideSelectedTag = new Action(ACTION_HIDE_TAG) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
                 mSelectedTagList = new ArrayList<String>();
                 mSelectedTagList.add(LogCatFilter.HIDE_KEYWORD);
                 setText(getText() + " : ");
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String tag = item.getLogCatMessage().getTag();
+                for (long row : selectedRows) {
+                    String tag = mStore.getTag(row);
                     if (!mSelectedTagList.contains(tag)) {
                         setText(getText() + tag + ", ");
                         mSelectedTagList.add(tag);
@@ -965,8 +1030,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mShowSelectedPID = new Action(ACTION_SHOW_PID) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
                 mShowSelectedPID.setEnabled(false);
@@ -974,8 +1039,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
                 mSelectedPIDList = new ArrayList<String>();
                 mSelectedPIDList.add(LogCatFilter.SHOW_KEYWORD);
                 setText(getText() + " : ");
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String PID = item.getLogCatMessage().getPid();
+                for (long row : selectedRows) {
+                    String PID = mStore.getPid(row);
                     if (!mSelectedPIDList.contains(PID)) {
                         setText(getText() + PID + ", ");
                         mSelectedPIDList.add(PID);
@@ -987,8 +1052,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mHideSelectedPID = new Action(ACTION_HIDE_PID) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
                 mShowSelectedPID.setEnabled(false);
@@ -996,8 +1061,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
                 mSelectedPIDList = new ArrayList<String>();
                 mSelectedPIDList.add(LogCatFilter.HIDE_KEYWORD);
                 setText(getText() + " : ");
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String PID = item.getLogCatMessage().getPid();
+                for (long row : selectedRows) {
+                    String PID = mStore.getPid(row);
                     if (!mSelectedPIDList.contains(PID)) {
                         setText(getText() + PID + ", ");
                         mSelectedPIDList.add(PID);
@@ -1025,58 +1090,54 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mHighlightSelectedTag = new Action(ACTION_HIGHLIGHT_TAG) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
-                List<LogCatMessageWrapper> allItems = getAllLogcatMessageUnfiltered();
                 setText(getText() + " : ");
-                List<String> selectedTags = new ArrayList<String>();
+                final BitSet selectedTags = new BitSet();
 
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String selectTag = item.getLogCatMessage().getTag();
-                    if (!selectedTags.contains(selectTag)) {
-                        setText(getText() + selectTag + ", ");
-                        selectedTags.add(selectTag);
+                for (long row : selectedRows) {
+                    int selectTag = mStore.getTagId(row);
+                    if (!selectedTags.get(selectTag)) {
+                        setText(getText() + mStore.getTag(row) + ", ");
+                        selectedTags.set(selectTag);
                     }
                 }
-                for (int i = 0; i < allItems.size(); i++) {
-                    LogCatMessageWrapper logCatMessageWrapper = allItems.get(i);
-                    String localTag = logCatMessageWrapper.getLogCatMessage().getTag();
-                    if (selectedTags.contains(localTag)) {
-                        logCatMessageWrapper.setHighlight(true);
+                new MarkScan(false) {
+                    @Override
+                    void scan(long row) {
+                        if (selectedTags.get(mScanStore.getTagId(row))) {
+                            mHits.set(row);
+                        }
                     }
-                }
-                mViewer.refresh();
+                }.start();
             }
         };
         mHighlightSelectedPID = new Action(ACTION_HIGHLIGHT_PID) {
             @Override
             public void run() {
-                List<LogCatMessageWrapper> selectedItems = getSelectedLogCatMessages();
-                if (selectedItems == null || selectedItems.size() == 0) {
+                long[] selectedRows = getSelectedRows();
+                if (selectedRows == null || selectedRows.length == 0) {
                     return;
                 }
 
-                List<LogCatMessageWrapper> allItems = getAllLogcatMessageUnfiltered();
                 setText(getText() + " : ");
-                List<String> selectedPIDs = new ArrayList<String>();
+                final Set<Integer> selectedPIDs = new HashSet<Integer>();
 
-                for (LogCatMessageWrapper item : selectedItems) {
-                    String selectPID = item.getLogCatMessage().getPid();
-                    if (!selectedPIDs.contains(selectPID)) {
-                        setText(getText() + selectPID + ", ");
-                        selectedPIDs.add(selectPID);
+                for (long row : selectedRows) {
+                    if (selectedPIDs.add(mStore.getPidValue(row))) {
+                        setText(getText() + mStore.getPid(row) + ", ");
                     }
                 }
-                for (int i = 0; i < allItems.size(); i++) {
-                    LogCatMessageWrapper logCatMessageWrapper = allItems.get(i);
-                    String localPID = logCatMessageWrapper.getLogCatMessage().getPid();
-                    if (selectedPIDs.contains(localPID)) {
-                        logCatMessageWrapper.setHighlight(true);
+                new MarkScan(false) {
+                    @Override
+                    void scan(long row) {
+                        if (selectedPIDs.contains(mScanStore.getPidValue(row))) {
+                            mHits.set(row);
+                        }
                     }
-                }
-                mViewer.refresh();
+                }.start();
             }
         };
 
@@ -1093,35 +1154,51 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mmg.add(mHighlightSelectedTag);
         mmg.add(mHighlightSelectedPID);
 
+        mFollowFile = new Action(ACTION_FOLLOW_FILE, IAction.AS_CHECK_BOX) {
+            @Override
+            public void run() {
+                setFollowFile(isChecked());
+            }
+        };
+        mmg.add(new Separator());
+        mmg.add(mFollowFile);
+
         mViewer.getTable().setMenu(menu);
     }
 
-    private void cleanBackground() {
-        List<LogCatMessageWrapper> filteredItems = getAllLogcatMessageUnfiltered();
-        for (LogCatMessageWrapper logCatMessageWrapper : filteredItems) {
-            logCatMessageWrapper.setHighlight(false);
+    /**
+     * Start or stop appending the lines written to the file shown after it was loaded.
+     * Following starts at the end of the table, and stays there until the user
+     * scrolls up.
+     */
+    private void setFollowFile(boolean follow) {
+        if (mTailer != null) {
+            mTailer.stop();
+            mTailer = null;
+        }
+        if (follow && mFile != null) {
+            mTailer = LogCatFileTailer.follow(mFile, mPanelID);
+        }
+        mFollowFile.setChecked(mTailer != null);
+        if (mTailer != null) {
+            setScrollToLatestLog(true, false);
         }
-        mViewer.refresh();
     }
 
-    private void cleanSearchBackground() {
-        List<LogCatMessageWrapper> filteredItems = getAllLogcatMessageUnfiltered();
-        for (LogCatMessageWrapper logCatMessageWrapper : filteredItems) {
-            logCatMessageWrapper.setSearchHightlight(false);
+    private void cleanBackground() {
+        cancelMarkScans(false);
+        if (mStore != null) {
+            mStore.getHighlights().clear();
         }
         mViewer.refresh();
     }
 
-    @SuppressWarnings("unchecked")
-    private List<LogCatMessageWrapper> getAllLogcatMessageUnfiltered() {
-        Object input = mViewer.getInput();
-        List<?> list = (List<?>) input;
-        if (input == null || list.size() == 0 || !(list.get(0) instanceof LogCatMessageWrapper)) {
-            return new ArrayList<LogCatMessageWrapper>(0);
-        } else {
-            List<LogCatMessageWrapper> filteredItems = (List<LogCatMessageWrapper>) list;
-            return filteredItems;
+    private void cleanSearchBackground() {
+        cancelMarkScans(true);
+        if (mStore != null) {
+            mStore.getSearchHits().clear();
         }
+        mViewer.refresh();
     }
 
     /**
@@ -1220,7 +1297,8 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
 
             Text text = new Text(comp, SWT.BORDER | SWT.V_SCROLL | SWT.WRAP);
             text.setEditable(false);
-            text.setText(cell.getElement().toString());
+            // the full message, as given by the label provider
+            text.setText(getText(event));
             text.setLayoutData(new GridData(500, 150));
 
             return comp;
@@ -1293,44 +1371,36 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     }
 
     private void updateAppliedFilters() {
-        List<LogCatViewerFilter> filters = getFiltersToApply();
-        mViewer.getTable().setRedraw(false);// performance issue
-        mViewer.setFilters(filters.toArray(new LogCatViewerFilter[filters.size()]));
-        mViewer.getTable().setRedraw(true);
-        /*
-         * whenever filters are changed, the number of displayed logs changes drastically. Display the latest log in
-         * such a situation.
-         */
-        if (mViewer.getInput() == null) {
+        // a filter must not be matched by two threads at once
+        if (mFilterScan != null) {
+            mFilterScan.cancel();
+            mFilterScan = null;
+        }
+        mAppliedFilters = getFiltersToApply();
+        if (mStore == null) {
             return;
         }
-        if (getSelectedLogCatMessages() == null || getSelectedLogCatMessages().size() == 0)
-            scrollToLatestLog();
+        // the table keeps the rows it shows until the scan is done
+        mFilterScan = new FilterScan();
+        mFilterScan.start();
     }
 
-    private List<LogCatViewerFilter> getFiltersToApply() {
+    private List<LogCatFilter> getFiltersToApply() {
         /* list of filters to apply = saved filter + live filters */
-        List<LogCatViewerFilter> filters = new ArrayList<LogCatViewerFilter>();
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
         filters.add(getSelectedSavedFilter());
         filters.addAll(getCurrentLiveFilters());
         return filters;
     }
 
-    private List<LogCatViewerFilter> getCurrentLiveFilters() {
-        List<LogCatViewerFilter> liveFilters = new ArrayList<LogCatViewerFilter>();
-
-        List<LogCatFilter> liveFilterSettings = LogCatFilter.fromString(mLiveFilterText.getText(), /* current query */
+    private List<LogCatFilter> getCurrentLiveFilters() {
+        return LogCatFilter.fromString(mLiveFilterText.getText(), /* current query */
             LogLevel.getByString(mCurrentFilterLogLevel), mSelectedPIDList, mSelectedTagList); /* current log level */
-        for (LogCatFilter s : liveFilterSettings) {
-            liveFilters.add(new LogCatViewerFilter(s));
-        }
-
-        return liveFilters;
     }
 
-    private LogCatViewerFilter getSelectedSavedFilter() {
+    private LogCatFilter getSelectedSavedFilter() {
         int index = getSelectedSavedFilterIndex();
-        return new LogCatViewerFilter(mLogCatFilters.get(index));
+        return mLogCatFilters.get(index);
     }
 
     /**
@@ -1339,28 +1409,118 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
      * @param receivedMessages list of messages from logcat Implements
      *            {@link ILogCatMessageEventListener#messageReceived()}.
      */
-    public void messageReceived(List<LogCatMessage> receivedMessages, int panelID, File file) {
+    public void messageReceived(List<LogCatMessage> receivedMessages, int panelID, final File file,
+            LogCatLoadMonitor load) {
+        if (panelID != mPanelID || load.isCanceled()) {
+            return;
+        }
+        // Files are loaded on a worker thread: store the messages there, and only
+        // update the widgets in the UI thread.
+        final LogStore store = new LogStore(file);
+        store.addAll(receivedMessages);
+        final long size = store.size();
+        synchronized (this) {
+            // a load canceled meanwhile must not replace the one started after it
+            if (load.isCanceled()) {
+                store.close();
+                return;
+            }
+            mLoadingStore = store;
+            mLoad = load;
+            mLoadedRows = size;
+            Display.getDefault().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if (mViewer.getTable().isDisposed()) {
+                        store.close();
+                        return;
+                    }
+                    showMessages(store, size);
+                }
+            });
+        }
+    }
+
+    /**
+     * Append the next messages of the file being shown, while it is still loading or
+     * followed. The table picks them up at its next refresh.
+     * Implements {@link ILogCatMessageEventListener#messageAppended()}.
+     */
+    public void messageAppended(List<LogCatMessage> appendedMessages, int panelID, final File file,
+            LogCatLoadMonitor load) {
         if (panelID != mPanelID) {
             return;
         }
+        LogStore store;
+        synchronized (this) {
+            if (load != mLoad) {
+                return;
+            }
+            store = mLoadingStore;
+        }
+        // only the thread of the load writes to its store
+        long to = store.addAll(appendedMessages) + appendedMessages.size();
+        synchronized (this) {
+            if (store != mLoadingStore) {
+                return;
+            }
+            mLoadedRows = to;
+        }
+        refreshLogCatTable();
+    }
+
+    /** Show the first {@code size} rows of a newly loaded file. */
+    private void showMessages(LogStore store, long size) {
+        // a newly loaded file replaces the one being followed
+        setFollowFile(false);
         // change file name
+        File file = store.getFile();
+        mFile = file;
         mPannelName = file.getName();
         mLiveFilterText.setMessage("<" + mPannelName + "> " + DEFAULT_SEARCH_MESSAGE);
         mLiveFilterText.setToolTipText("File path: " + file.getAbsolutePath() + "\n" + DEFAULT_SEARCH_TOOLTIP);
 
-        List<LogCatMessageWrapper> wrapperList = new ArrayList<LogCatMessageWrapper>();
-        for (int i = 0; i < receivedMessages.size(); i++) {
-            wrapperList.add(new LogCatMessageWrapper(receivedMessages.get(i)));
+        cancelScans();
+        if (mStore != null) {
+            // its text lives in a temporary file until then
+            mStore.close();
         }
-        setPIDAndTagList(wrapperList);
+        mStore = store;
+        mShownRows = size;
+        mLogCatMessageLabelProvider.setStore(store);
+        setPIDAndTagList(size);
         resetUI();// !!!
-        mViewer.setInput(wrapperList);
+        // start at the first message, the rest of a large file is still loading
+        mShouldScrollToLatestLog = false;
+        mViewer.setInput(store);
+        filterRows(0, size);
+        mViewer.setItemCount(mContentProvider.getItemCount());
         refreshLogCatTable();
-        updateUnreadCount(wrapperList);
+        updateUnreadCount(0, size);
         refreshFiltersTable();
 
     }
 
+    /** Show the rows of the file appended to {@link #mStore} from {@code from} to {@code to}. */
+    private void appendRows(long from, long to) {
+        mShownRows = to;
+        addPIDAndTagList(from, to);
+        // Only the new messages go through the filters, so the cost of an append does
+        // not grow with the number of messages already shown. A running filter scan
+        // picks them up when it is done.
+        if (mFilterScan == null) {
+            filterRows(from, to);
+        }
+        if (mShouldScrollToLatestLog) {
+            scrollToLatestLog();
+        } else {
+            // the window grows up to its size, then rows beyond it wait to be scrolled to
+            mViewer.setItemCount(mContentProvider.getItemCount());
+        }
+        updateUnreadCount(from, to);
+        refreshFiltersTable();
+    }
+
     /**
      * Change log file, some filter will drop.
      */
@@ -1371,62 +1531,72 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
         mSelectedPIDList = null; // PID filter will drop
     }
 
-    public void synSelected(String synTime) {
+    public void synSelected(long timestamp) {
         if (!mIsSynFromHere) {
-            Object input = mViewer.getInput();
-            if (input == null) {
+            if (mStore == null) {
                 return;
             }
-            int low = 0;
-            int high = mViewer.getTable().getItemCount() - 1;
-            int mid = (low + high) / 2;
-            List<LogCatMessageWrapper> filteredItems = applyCurrentFilters((List<?>) input);
+            long low = 0;
+            long high = mContentProvider.getRowCount() - 1;
+            long mid = (low + high) / 2;
             while (low <= high) {
                 mid = (low + high) / 2;
                 /*
                  * if (mid == 0){ mid = 1; }
                  */
-                String localTime = filteredItems.get(mid).getLogCatMessage().getTime();
-                if (synTime.compareTo(localTime) < 0) {
+                long localTime = mStore.getTimestamp(mContentProvider.getShownRow(mid));
+                if (timestamp < localTime) {
                     high = mid - 1;
-                } else if (synTime.compareTo(localTime) > 0) {
+                } else if (timestamp > localTime) {
                     low = mid + 1;
                 } else {
                     break;
                 }
             }
-            mViewer.getTable().setSelection(mid);
-            mViewer.getTable().setTopIndex(mid - 6);
+            if (mid < mContentProvider.getRowCount()) {
+                int index = reveal(mContentProvider.getShownRow(mid));
+                mViewer.getTable().setSelection(index);
+                mViewer.getTable().setTopIndex(index - 6);
+            }
         }
         mIsSynFromHere = false;
     }
 
-    private void setPIDAndTagList(List<LogCatMessageWrapper> receivedMessages) {
-        // mPIDList = new ArrayList<String>();
-        // mTagList = new ArrayList<String>();
-        HashSet<String> pidSet = new HashSet<String>();
-        HashSet<String> tagSet = new HashSet<String>();
-        for (LogCatMessageWrapper msg : receivedMessages) {
-            pidSet.add(msg.getLogCatMessage().getPid());
-            tagSet.add(msg.getLogCatMessage().getTag());
+    private void setPIDAndTagList(long size) {
+        mPIDList = new ArrayList<String>();
+        mTagList = new ArrayList<String>();
+        mPIDIds = new HashSet<Integer>();
+        mTagIds = new BitSet();
+        addPIDAndTagList(0, size);
+    }
+
+    private void addPIDAndTagList(long from, long to) {
+        for (long row = from; row < to; row++) {
+            if (mPIDIds.add(mStore.getPidValue(row))) {
+                mPIDList.add(mStore.getPid(row));
+            }
+            int tag = mStore.getTagId(row);
+            if (!mTagIds.get(tag)) {
+                mTagIds.set(tag);
+                mTagList.add(mStore.getTag(row));
+            }
         }
-        mPIDList = new ArrayList<String>(pidSet);
-        mTagList = new ArrayList<String>(tagSet);
     }
 
     /**
      * When new messages are received, and they match a saved filter, update the unread count associated with that
      * filter.
      * 
-     * @param receivedMessages list of new messages received
+     * @param from first new row of {@link #mStore}
+     * @param to row following the last new one
      */
-    private void updateUnreadCount(List<LogCatMessageWrapper> receivedMessages) {
+    private void updateUnreadCount(long from, long to) {
         for (int i = 0; i < mLogCatFilters.size(); i++) {
             if (i == mCurrentSelectedFilterIndex) {
                 /* no need to update unread count for currently selected filter */
                 continue;
             }
-            mLogCatFilters.get(i).updateUnreadCount(receivedMessages);
+            mLogCatFilters.get(i).updateUnreadCount(mStore, from, to);
         }
     }
 
@@ -1444,15 +1614,20 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
 
     /** Task currently submitted to {@link Display#asyncExec} to be run in UI thread. */
     private LogCatTableRefresherTask mCurrentRefresher;
+    /** Shortest delay between two refreshes of the table, in milliseconds. */
+    private static final int REFRESH_INTERVAL = 200;
+    /** When the table was last refreshed, only accessed from the UI thread. */
+    private long mLastRefreshTime;
 
     /**
      * Refresh the logcat table asynchronously from the UI thread. This method adds a new async refresh only if there
      * are no pending refreshes for the table. Doing so eliminates redundant refresh threads from being queued up to be
-     * run on the display thread.
+     * run on the display thread. The refresh also shows the rows appended to the file being loaded,
+     * and it is delayed to leave {@link #REFRESH_INTERVAL} after the previous one.
      */
     private void refreshLogCatTable() {
         synchronized (this) {
-            if (mCurrentRefresher == null && mShouldScrollToLatestLog) {
+            if (mCurrentRefresher == null) {
                 mCurrentRefresher = new LogCatTableRefresherTask();
                 Display.getDefault().asyncExec(mCurrentRefresher);
             }
@@ -1465,22 +1640,258 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
             if (mViewer.getTable().isDisposed()) {
                 return;
             }
+            long now = System.currentTimeMillis();
+            long wait = mLastRefreshTime + REFRESH_INTERVAL - now;
+            if (wait > 0 && wait <= REFRESH_INTERVAL) {
+                // still pending, so that no other refresh gets queued meanwhile
+                Display.getDefault().timerExec((int) wait, this);
+                return;
+            }
+            mLastRefreshTime = now;
+            long loaded;
             synchronized (LogCatPanel.this) {
                 mCurrentRefresher = null;
+                loaded = mLoadingStore == mStore ? mLoadedRows : mShownRows;
             }
 
+            // fold in the rows the loading thread added since the last refresh
+            if (loaded > mShownRows) {
+                appendRows(mShownRows, loaded);
+            }
+            mViewer.refresh();
             if (mShouldScrollToLatestLog) {
-                mViewer.refresh();
                 scrollToLatestLog();
             }
         }
     }
 
+    /** Rows scanned between two checks of whether the scan got canceled. */
+    private static final int SCAN_CHECK_ROWS = 4096;
+    /** Scans running on worker threads, only accessed from the UI thread. */
+    private final List<RowScan> mScans = new ArrayList<RowScan>();
+    /** The scan applying {@link #mAppliedFilters} to the rows of the store, while it runs. */
+    private FilterScan mFilterScan;
+
+    /**
+     * A pass over the rows of {@link #mStore} shown when it starts, run on a worker
+     * thread so that the table stays responsive however many rows the store holds. Its
+     * result is published in the UI thread, unless the scan is canceled first.
+     */
+    private abstract class RowScan implements Runnable {
+        final LogCatLoadMonitor mMonitor = new LogCatLoadMonitor();
+        final LogStore mScanStore = mStore;
+        final long mScanRows = mShownRows;
+        private Thread mThread;
+
+        /** Scan one row, in the worker thread. */
+        abstract void scan(long row);
+
+        /** Use the result of the scan, in the UI thread. */
+        abstract void publish();
+
+        void start() {
+            mScans.add(this);
+            mThread = new Thread(this);
+            mThread.setName("Log scanner");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        /** Stop the scan, and wait for its thread to be done with the store. */
+        void cancel() {
+            mScans.remove(this);
+            mMonitor.cancel();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (long row = 0; row < mScanRows; row++) {
+                    if (row % SCAN_CHECK_ROWS == 0 && mMonitor.isCanceled()) {
+                        return;
+                    }
+                    scan(row);
+                }
+            } finally {
+                mMonitor.done();
+            }
+            Display.getDefault().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    if (mMonitor.isCanceled() || mViewer.getTable().isDisposed()) {
+                        return;
+                    }
+                    mScans.remove(RowScan.this);
+                    publish();
+                }
+            });
+        }
+    }
+
+    /** Scan of the rows that pass {@link #mAppliedFilters}, which then replace the rows shown. */
+    private final class FilterScan extends RowScan {
+        private final List<LogCatFilter> mFilters = mAppliedFilters;
+        private final LogCatMessageContentProvider mRows = new LogCatMessageContentProvider();
+
+        @Override
+        void scan(long row) {
+            if (isRowShown(mFilters, mScanStore, row)) {
+                mRows.addRow(row);
+            }
+        }
+
+        @Override
+        void publish() {
+            mFilterScan = null;
+            mViewer.getTable().setRedraw(false);// performance issue
+            mContentProvider.setRows(mRows);
+            // rows appended while the scan was running
+            filterRows(mScanRows, mShownRows);
+            mViewer.setItemCount(mContentProvider.getItemCount());
+            mViewer.refresh();
+            mViewer.getTable().setRedraw(true);
+            /*
+             * whenever filters are changed, the number of displayed logs changes drastically. Display the latest log
+             * in such a situation.
+             */
+            if (getSelectedRows().length == 0)
+                scrollToLatestLog();
+        }
+    }
+
+    /** Scan of rows to add to the highlights of the store, or to its search hits. */
+    private abstract class MarkScan extends RowScan {
+        final RowBitSet mHits = new RowBitSet();
+        final boolean mSearch;
+
+        MarkScan(boolean search) {
+            mSearch = search;
+        }
+
+        @Override
+        void publish() {
+            (mSearch ? mStore.getSearchHits() : mStore.getHighlights()).or(mHits);
+            mViewer.refresh();
+        }
+    }
+
+    /** Cancel every scan, before the store they go through is replaced. */
+    private void cancelScans() {
+        for (RowScan scan : new ArrayList<RowScan>(mScans)) {
+            scan.cancel();
+        }
+        mFilterScan = null;
+    }
+
+    /** Cancel the scans adding to the search hits, or those adding to the highlights. */
+    private void cancelMarkScans(boolean search) {
+        for (RowScan scan : new ArrayList<RowScan>(mScans)) {
+            if (scan instanceof MarkScan && ((MarkScan) scan).mSearch == search) {
+                scan.cancel();
+            }
+        }
+    }
+
     /** Scroll to the last line. */
     private void scrollToLatestLog() {
+        moveWindow(mContentProvider.getRowCount() - WINDOW_SIZE);
+        mViewer.setItemCount(mContentProvider.getItemCount());
         mViewer.getTable().setTopIndex(mViewer.getTable().getItemCount() - 1);
     }
 
+    /**
+     * Move the window of the table to a row of the store, if it is out of it.
+     * @return the table index of the row, or -1 if the row is not shown.
+     */
+    private int reveal(long row) {
+        int index = mContentProvider.indexOf(row);
+        long shown = mContentProvider.getShownIndex(row);
+        if (index < 0 && shown >= 0) {
+            moveWindow(shown - WINDOW_SIZE / 2);
+            index = mContentProvider.indexOf(row);
+        }
+        return index;
+    }
+
+    /**
+     * Move the window of the table to start at an index among the rows shown, the
+     * rows at the top and selected staying so if they are in the window moved to.
+     */
+    private void moveWindow(long start) {
+        start = Math.max(0, Math.min(start, mContentProvider.getRowCount() - WINDOW_SIZE));
+        long oldStart = mContentProvider.getWindowStart();
+        if (start == oldStart) {
+            return;
+        }
+        Table table = mViewer.getTable();
+        long top = oldStart + table.getTopIndex();
+        long[] selectedRows = getSelectedRows();
+        mContentProvider.setWindowStart(start);
+
+        table.setRedraw(false);
+        mViewer.setItemCount(mContentProvider.getItemCount());
+        mViewer.refresh();
+        table.deselectAll();
+        int[] indices = new int[selectedRows == null ? 0 : selectedRows.length];
+        int count = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int index = mContentProvider.indexOf(selectedRows[i]);
+            if (index >= 0) {
+                indices[count++] = index;
+            }
+        }
+        table.select(Arrays.copyOf(indices, count));
+        table.setTopIndex((int) Math.max(0, Math.min(top - start, table.getItemCount() - 1)));
+        table.setRedraw(true);
+    }
+
+    /**
+     * Move the window of the table by half its size once the top item nears one of its
+     * ends, so that scrolling goes on through the rows out of it.
+     */
+    private void setupWindowScrolling() {
+        Listener listener = new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                if (mWindowUpdatePending) {
+                    return;
+                }
+                mWindowUpdatePending = true;
+                // after the table has scrolled
+                Display.getDefault().asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        mWindowUpdatePending = false;
+                        if (!mViewer.getTable().isDisposed()) {
+                            updateWindow();
+                        }
+                    }
+                });
+            }
+        };
+        mViewer.getTable().addListener(SWT.Selection, listener);
+        mViewer.getTable().addListener(SWT.MouseWheel, listener);
+        mViewer.getTable().addListener(SWT.KeyDown, listener);
+        mViewer.getTable().getVerticalBar().addListener(SWT.Selection, listener);
+    }
+
+    private void updateWindow() {
+        Table table = mViewer.getTable();
+        long start = mContentProvider.getWindowStart();
+        int top = table.getTopIndex();
+        int items = table.getItemCount();
+        if (top < WINDOW_MARGIN && start > 0) {
+            moveWindow(start - WINDOW_SIZE / 2);
+        } else if (top > items - WINDOW_MARGIN && start + items < mContentProvider.getRowCount()) {
+            moveWindow(start + WINDOW_SIZE / 2);
+        }
+    }
+
     private List<ILogCatMessageSelectionListener> mMessageSelectionListeners;
 
     /*
@@ -1503,6 +1914,9 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     private ITableFocusListener mTableFocusListener;
     private Action mResetHighLight;
     private Action mClearSearch;
+    private Action mFollowFile;
+    /** Follows the file shown while {@link #mFollowFile} is checked. */
+    private LogCatFileTailer mTailer;
 
     /**
      * Specify the listener to be called when the logcat view gets focus. This interface is required by DDMS to hook up
@@ -1553,12 +1967,12 @@ public final class LogCatPanel implements ILogCatMessageEventListener, ILogCatSy
     public void copySelectionToClipboard(Clipboard clipboard) {
         StringBuilder sb = new StringBuilder();
 
-        List<LogCatMessageWrapper> selectedList = getSelectedLogCatMessages();
-        if (selectedList == null) {
+        long[] selectedRows = getSelectedRows();
+        if (selectedRows == null) {
             return;
         }
-        for (LogCatMessageWrapper m : selectedList) {
-            sb.append(m.getLogCatMessage().toString());
+        for (long row : selectedRows) {
+            sb.append(mStore.getLogCatMessage(row).toString());
             sb.append('\n');
         }
 
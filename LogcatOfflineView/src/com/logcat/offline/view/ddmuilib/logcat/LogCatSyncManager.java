@@ -27,9 +27,9 @@ public class LogCatSyncManager {
         mLogCatMessageListeners.remove(l);
     }
     
-    public void syncTime(String synTime){
+    public void syncTime(long timestamp){
     	for (ILogCatSyncListener l : mLogCatMessageListeners) {
-            l.synSelected(synTime);
+            l.synSelected(timestamp);
         }
     }
 }
@@ -0,0 +1,200 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Opens the lines of a log file, which may be a plain text file, a gzip file or a zip
+ * archive such as the ones {@code adb bugreport} writes. Plain files are mapped,
+ * compressed ones are decompressed on a thread of their own while they are parsed.
+ */
+final class LogFileOpener {
+    private static final int GZIP_MAGIC = 0x1f8b;
+    private static final int ZIP_MAGIC = 0x504b0304;
+
+    private LogFileOpener() {
+    }
+
+    /** Whether the file is a gzip file or a zip archive, judging by its first bytes. */
+    static boolean isCompressed(File file) throws IOException {
+        return readMagic(file) != 0;
+    }
+
+    /**
+     * Open a log file for reading its lines. For a zip archive, the log read is the
+     * {@code bugreport*.txt} entry if there is one, or else the largest text entry.
+     */
+    static ILineReader open(File file) throws IOException {
+        if (!isCompressed(file)) {
+            return new MappedLineReader(file);
+        }
+        CountedStream stream = openCounted(file);
+        return new StreamLineReader(new AsyncInputStream(stream.mInput, stream.mName),
+                stream.mCounter, stream.mSize);
+    }
+
+    /**
+     * The decompressed content of a log file, with the count of the bytes read from
+     * the file, or from the zip entry, underneath it.
+     */
+    static final class CountedStream {
+        final InputStream mInput;
+        final CountingInputStream mCounter;
+        /** What {@link #mCounter} counts up to, or -1 if it is not known. */
+        final long mSize;
+        final String mName;
+
+        CountedStream(InputStream input, CountingInputStream counter, long size, String name) {
+            mInput = input;
+            mCounter = counter;
+            mSize = size;
+            mName = name;
+        }
+    }
+
+    /**
+     * Open the decompressed content of a log file as a stream, counting how much of
+     * the file has been read for reporting the progress.
+     */
+    static CountedStream openCounted(File file) throws IOException {
+        int magic = readMagic(file);
+        if (magic == GZIP_MAGIC) {
+            CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+            try {
+                return new CountedStream(new GZIPInputStream(counter, 64 * 1024), counter,
+                        file.length(), file.getName());
+            } catch (IOException e) {
+                counter.close();
+                throw e;
+            }
+        }
+        if (magic == ZIP_MAGIC) {
+            ZipFile zip = new ZipFile(file);
+            ZipEntry entry = findLogEntry(zip);
+            // the decompressed bytes are counted, up to the size of the entry if the
+            // archive records it
+            CountingInputStream counter = new CountingInputStream(openEntry(zip, entry));
+            return new CountedStream(counter, counter, entry.getSize(), entry.getName());
+        }
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+        return new CountedStream(counter, counter, file.length(), file.getName());
+    }
+
+    /**
+     * Open the decompressed content of a log file as a plain stream, the same content
+     * {@link #open(File)} splits in lines.
+     */
+    static InputStream openStream(File file) throws IOException {
+        int magic = readMagic(file);
+        if (magic == GZIP_MAGIC) {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                return new GZIPInputStream(in, 64 * 1024);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        if (magic == ZIP_MAGIC) {
+            ZipFile zip = new ZipFile(file);
+            return openEntry(zip, findLogEntry(zip));
+        }
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Open an entry of a zip file, which is closed along with the returned stream.
+     * @param entry the entry, or null if the archive has none, in which case the
+     * archive is closed right away.
+     */
+    private static InputStream openEntry(final ZipFile zip, ZipEntry entry) throws IOException {
+        try {
+            if (entry == null) {
+                throw new IOException("No log in " + zip.getName());
+            }
+            return new FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    private static ZipEntry findLogEntry(ZipFile zip) {
+        ZipEntry bugreport = null;
+        ZipEntry text = null;
+        ZipEntry largest = null;
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            String name = entry.getName().toLowerCase();
+            name = name.substring(name.lastIndexOf('/') + 1);
+            if (name.endsWith(".txt")) {
+                if (name.startsWith("bugreport") && isLarger(entry, bugreport)) {
+                    bugreport = entry;
+                }
+                if (isLarger(entry, text)) {
+                    text = entry;
+                }
+            }
+            if (isLarger(entry, largest)) {
+                largest = entry;
+            }
+        }
+        if (bugreport != null) {
+            return bugreport;
+        }
+        return text != null ? text : largest;
+    }
+
+    private static boolean isLarger(ZipEntry entry, ZipEntry other) {
+        return other == null || getSize(entry) > getSize(other);
+    }
+
+    /** @return the size of an entry, or its compressed size if the archive lacks it. */
+    private static long getSize(ZipEntry entry) {
+        return entry.getSize() >= 0 ? entry.getSize() : entry.getCompressedSize();
+    }
+
+    /**
+     * @return {@link #GZIP_MAGIC}, {@link #ZIP_MAGIC}, or 0 for any other file.
+     */
+    private static int readMagic(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] b = new byte[4];
+            int length = 0;
+            int count;
+            while (length < b.length && (count = in.read(b, length, b.length - length)) > 0) {
+                length += count;
+            }
+            if (length >= 2 && (b[0] & 0xff) == 0x1f && (b[1] & 0xff) == 0x8b) {
+                return GZIP_MAGIC;
+            }
+            if (length == 4 && b[0] == 'P' && b[1] == 'K' && b[2] == 3 && b[3] == 4) {
+                return ZIP_MAGIC;
+            }
+            return 0;
+        } finally {
+            in.close();
+        }
+    }
+}
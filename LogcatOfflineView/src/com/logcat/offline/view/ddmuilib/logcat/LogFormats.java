@@ -0,0 +1,301 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * The log formats the parser knows about: the custom formats defined by the user,
+ * followed by the formats of logcat itself.
+ * <p/>
+ * A custom format is a line of the form {@code "name<TAB>fields<TAB>regex"}, where
+ * {@code fields} lists the field held by each group of {@code regex}, among
+ * {@code time}, {@code level}, {@code pid}, {@code tid}, {@code tag} and
+ * {@code message}. For instance, the kernel log of {@code dmesg} could be defined as
+ * <pre>
+ * dmesg	time,message	^\[\s*(\d+\.\d+)\]\s(.*)$
+ * </pre>
+ * Messages of a format without a level are {@link LogLevel#INFO}.
+ */
+final class LogFormats {
+    /** Fields of a message, in the order {@link RegexLogFormat} takes their groups. */
+    private static final String[] FIELDS = {
+        "time", "level", "pid", "tid", "tag", "message"
+    };
+
+    private static final String UNKNOWN_FORMAT_TAG = "UNKNOWN_FORMAT";
+    private static final String LOGCAT_BANNER = "--------- ";
+
+    //I/MediaUploader(22541): No need to wake up
+    static final RegexLogFormat BRIEF = new BuiltInFormat("brief", Pattern.compile(
+            "^([VDIWEAF])/(.*?)\\(\\s*(\\d+)\\):\\s+(.*)$"),
+            new int[] { 0, 1, 3, 0, 2, 4 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseBrief(b, start, end, false, state, messages);
+        }
+    };
+
+    static final LongLogFormat LONG = new LongLogFormat();
+
+    static final RegexLogFormat TIME = new BuiltInFormat("time", Pattern.compile(
+            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+):*"
+          + "\\s([VDIWEAF])/(.*?)\\((\\s*\\d+)\\):\\s+(.*)$"),
+            new int[] { 1, 2, 4, 0, 3, 5 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseTime(b, start, end, false, state, messages);
+        }
+    };
+
+    //04-08 12:57:40.370    89   103 I Installer: connecting...
+    static final RegexLogFormat THREADTIME = new BuiltInFormat("threadtime", Pattern.compile(
+            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
+            + "\\s*(\\d+)\\s*(\\d+)"
+            + "\\s([VDIWEAF])\\s(.*?):\\s+(.*)$"),
+            new int[] { 1, 4, 2, 3, 5, 6 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseThreadtime(b, start, end, false, state, messages);
+        }
+    };
+
+    /*
+     * The formats above with the uid that -v uid adds before the pid, a number or a
+     * user name, which is skipped. Lines without it, such as those of the messages
+     * logged without a uid, are parsed too.
+     */
+
+    //I/MediaUploader(u0_a12 22541): No need to wake up
+    static final RegexLogFormat BRIEF_UID = new BuiltInFormat("brief,uid", Pattern.compile(
+            "^([VDIWEAF])/(.*?)\\(\\s*(?:[^\\s:()]+(?::\\s*|\\s+))?(\\d+)\\):\\s+(.*)$"),
+            new int[] { 0, 1, 3, 0, 2, 4 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseBrief(b, start, end, true, state, messages);
+        }
+    };
+
+    static final RegexLogFormat TIME_UID = new BuiltInFormat("time,uid", Pattern.compile(
+            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+):*"
+          + "\\s([VDIWEAF])/(.*?)\\(\\s*(?:[^\\s:()]+(?::\\s*|\\s+))?(\\d+)\\):\\s+(.*)$"),
+            new int[] { 1, 2, 4, 0, 3, 5 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseTime(b, start, end, true, state, messages);
+        }
+    };
+
+    //04-08 12:57:40.370  1000    89   103 I Installer: connecting...
+    static final RegexLogFormat THREADTIME_UID = new BuiltInFormat("threadtime,uid",
+            Pattern.compile("^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
+            + "\\s+(?:[^\\s:()]+(?::\\s*|\\s+))?(\\d+)\\s+(\\d+)"
+            + "\\s([VDIWEAF])\\s(.*?):\\s+(.*)$"),
+            new int[] { 1, 4, 2, 3, 5, 6 }, true) {
+        @Override
+        protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+                List<LogCatMessage> messages) {
+            return LogCatLineTokenizer.parseThreadtime(b, start, end, true, state, messages);
+        }
+    };
+
+    //<de.gratnik@gmail.com> contribution test pattern.
+    //path: /LogcatOfflineView/test_pattern/ddms_save_format/type3.txt
+    static final RegexLogFormat DDMS = new BuiltInFormat("ddms", Pattern.compile(
+            "^(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+):*"
+            + "\\s(VERBOSE|DEBUG|ERROR|WARN|INFO|ASSERT)/(.*?)\\((\\s*\\d+)\\):\\s+(.*)$"),
+            new int[] { 1, 2, 4, 0, 3, 5 }, true);
+
+    static final RegexLogFormat PROCESS = new BuiltInFormat("process", Pattern.compile(
+            "^([VDIWEAF])\\(\\s*(\\d+)\\)\\s+(.*)$"),
+            new int[] { 0, 1, 2, 0, 0, 3 }, false);
+
+    static final RegexLogFormat TAG = new BuiltInFormat("tag", Pattern.compile(
+            "^([VDIWEAF])/(.*?):\\s+(.*)$"),
+            new int[] { 0, 1, 0, 0, 2, 3 }, false);
+
+    static final RegexLogFormat THREAD = new BuiltInFormat("thread", Pattern.compile(
+            "^([VDIWEAF])\\(\\s*(\\d+):(0x.*?)\\)"
+            + "\\s+(.*)$"),
+            new int[] { 0, 1, 2, 3, 0, 4 }, false);
+
+    /** The formats of logcat, in the order they win a tie when voting for the format of a file. */
+    private static final ILogFormat[] BUILT_IN = {
+        BRIEF, LONG, TIME, THREADTIME, DDMS, PROCESS, TAG, THREAD,
+        BRIEF_UID, TIME_UID, THREADTIME_UID
+    };
+
+    private final List<ILogFormat> mCustom;
+    private final List<ILogFormat> mAll;
+
+    LogFormats(List<ILogFormat> custom) {
+        mCustom = custom;
+        List<ILogFormat> all = new ArrayList<ILogFormat>(custom);
+        Collections.addAll(all, BUILT_IN);
+        mAll = Collections.unmodifiableList(all);
+    }
+
+    /** The custom formats, then the formats of logcat. */
+    List<ILogFormat> getAll() {
+        return mAll;
+    }
+
+    /**
+     * Find the format a trimmed line looks like. Custom formats are tried first, the
+     * formats of logcat are then told apart by {@link LogCatLineTokenizer#classify}
+     * in a single scan of the line.
+     * @return the format, or null if the line looks like none.
+     */
+    ILogFormat detect(byte[] b, int start, int end) {
+        for (int i = 0; i < mCustom.size(); i++) {
+            ILogFormat format = mCustom.get(i);
+            if (format.detect(b, start, end)) {
+                return format;
+            }
+        }
+        ILogFormat format = LogCatLineTokenizer.classify(b, start, end);
+        if (format == LONG && !LONG.detect(b, start, end)) {
+            return null;
+        }
+        return format;
+    }
+
+    /**
+     * @return the variant of a format of logcat with the uid of {@code -v uid}, or the
+     * format itself if it has none.
+     */
+    static ILogFormat withUid(ILogFormat format) {
+        if (format == BRIEF) {
+            return BRIEF_UID;
+        } else if (format == TIME) {
+            return TIME_UID;
+        } else if (format == THREADTIME) {
+            return THREADTIME_UID;
+        }
+        return format;
+    }
+
+    /** @return the format of the given name, or null. */
+    ILogFormat forName(String name) {
+        for (ILogFormat format : mAll) {
+            if (format.getName().equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode the custom formats defined in {@code definitions}, one per line. Invalid
+     * definitions are reported and skipped.
+     */
+    static List<ILogFormat> parseCustomFormats(String definitions) {
+        List<ILogFormat> formats = new ArrayList<ILogFormat>();
+        if (definitions == null) {
+            return formats;
+        }
+        for (String definition : definitions.split("\n")) {
+            definition = definition.trim();
+            if (definition.length() == 0 || definition.startsWith("#")) {
+                continue;
+            }
+            String[] parts = definition.split("\t", 3);
+            if (parts.length != 3) {
+                Log.e("LogCatFormats", "Invalid log format definition: " + definition);
+                continue;
+            }
+            int[] groups = new int[FIELDS.length];
+            String[] fields = parts[1].split(",");
+            boolean valid = true;
+            for (int i = 0; i < fields.length; i++) {
+                int field = indexOf(fields[i].trim());
+                if (field < 0) {
+                    valid = false;
+                    break;
+                }
+                groups[field] = i + 1;
+            }
+            if (!valid) {
+                Log.e("LogCatFormats", "Invalid log format fields: " + definition);
+                continue;
+            }
+            try {
+                Pattern pattern = Pattern.compile(parts[2]);
+                if (pattern.matcher("").groupCount() < fields.length) {
+                    Log.e("LogCatFormats", "Missing groups in log format: " + definition);
+                    continue;
+                }
+                formats.add(new RegexLogFormat(parts[0].trim(), pattern, groups,
+                        groups[4] > 0, LogLevel.INFO));
+            } catch (PatternSyntaxException e) {
+                Log.e("LogCatFormats", "Invalid log format regex: " + definition);
+                Log.e("LogCatFormats", e.getMessage());
+            }
+        }
+        return formats;
+    }
+
+    private static int indexOf(String field) {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (FIELDS[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add a line that is not in the format of the log. It continues the current
+     * record, such as a frame of a stack trace or a line of a dump logged in one
+     * message. Without a record, it starts a warning holding the whole line, which
+     * the lines of unknown format after it continue.
+     * <p/>
+     * The banners logcat prints between buffers, such as
+     * {@code "--------- beginning of main"}, are shown on their own.
+     * @param recordStart whether the format detects the line as the start of a
+     * record, even though it failed to parse it. Such a line starts a warning of its
+     * own rather than continuing the record before it, so that a file in a variant
+     * of its format does not turn into a single message.
+     */
+    static void addUnformattedLine(String line, boolean recordStart, ParseState state,
+            List<LogCatMessage> messages) {
+        if (line.startsWith(LOGCAT_BANNER)) {
+            state.endRecord(messages);
+            messages.add(createUnknownFormatMessage(line, state));
+        } else if (recordStart || !state.continueRecord(line)) {
+            state.startRecord(createUnknownFormatMessage(line, state), messages);
+        }
+    }
+
+    private static LogCatMessage createUnknownFormatMessage(String line, ParseState state) {
+        return state.newMessage(LogLevel.WARN, "", "", UNKNOWN_FORMAT_TAG, "", line);
+    }
+
+    /**
+     * A format of logcat that is detected by {@link LogCatLineTokenizer#classify}. A
+     * line with or without a uid starts a record of both variants of a format.
+     */
+    private static class BuiltInFormat extends RegexLogFormat {
+        BuiltInFormat(String name, Pattern pattern, int[] groups, boolean requireTag) {
+            super(name, pattern, groups, requireTag, null);
+        }
+
+        @Override
+        public boolean detect(byte[] b, int start, int end) {
+            ILogFormat format = LogCatLineTokenizer.classify(b, start, end);
+            return format == this || (format != null && withUid(format) == withUid(this));
+        }
+    }
+}
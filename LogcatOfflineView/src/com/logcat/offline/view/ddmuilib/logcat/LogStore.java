@@ -0,0 +1,502 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatEventValues;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.android.ddmuilib.logcat.LogCatSymbolTable;
+
+/**
+ * The messages of a log file shown by a {@link LogCatPanel}, kept column by column
+ * rather than as one object per message. A message is a row, addressed by its index:
+ * its level, pid, tid, tag and time stamp are entries of primitive arrays, and the
+ * text of its time and of its message is packed in a {@link TextArena}, outside of
+ * the heap. A {@link LogCatMessage} is only created again for the rows that are
+ * exported, copied or shown in a tool tip.
+ * <p/>
+ * Rows are numbered by a long, so that captures of days, hundreds of millions of
+ * lines, fit. The columns are cut in segments of {@link #SEGMENT_SIZE} rows: a
+ * store grows by a segment at a time and never copies its rows to larger arrays.
+ * Once full, a segment may be spilled to a temporary file when the rows of all the
+ * stores exceed the {@link LogStoreBudget}, and is read back in on the next read of
+ * one of its rows.
+ * <p/>
+ * Chatty logs repeat the same message body, such as a lock taken or an input
+ * event, thousands of times. A row refers to its body by id, and a body repeated
+ * while it is still among the recent ones is stored once, so that whoever reads the
+ * text of the rows, such as a filter, can do it once per body.
+ * <p/>
+ * Rows are appended by the thread loading the file while the UI thread reads the
+ * rows already there: the first {@link #size()} rows never change. The highlighted
+ * rows are the exception, they belong to the UI thread.
+ */
+final class LogStore {
+    private static final LogLevel[] LEVELS = LogLevel.values();
+    /** Number of recent bodies looked up for a body added. */
+    private static final int RECENT_BODIES = 4096;
+    /** Longer bodies, such as stack traces, are rarely repeated and never shared. */
+    private static final int MAX_SHARED_BODY_LENGTH = 1024;
+    /** Rows are kept in segments of {@code 1 << SEGMENT_BITS} rows. */
+    static final int SEGMENT_BITS = 16;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final File mFile;
+    private LogCatSymbolTable mSymbols;
+    private final TextArena mText = new TextArena();
+    private final SegmentFile mSpill = new SegmentFile();
+    private volatile boolean mClosed;
+
+    /** The columns of a segment, as written to the file of the store. */
+    private abstract static class Columns {
+        /** @return the heap the columns take. */
+        abstract int getBytes();
+
+        abstract void write(ByteBuffer b);
+
+        abstract void read(ByteBuffer b);
+    }
+
+    /** The columns of the rows of a segment. */
+    private static final class RowColumns extends Columns {
+        static final int BYTES = SEGMENT_SIZE * (1 + 4 * 4 + 2 * 8);
+
+        final byte[] mLevels = new byte[SEGMENT_SIZE];
+        final int[] mPids = new int[SEGMENT_SIZE];
+        final int[] mTids = new int[SEGMENT_SIZE];
+        final int[] mTags = new int[SEGMENT_SIZE];
+        /** Id of the body, the text of the message, of each row. */
+        final int[] mBodies = new int[SEGMENT_SIZE];
+        final long[] mTimestamps = new long[SEGMENT_SIZE];
+        /** Address in {@link LogStore#mText} of the time of each row. */
+        final long[] mTimes = new long[SEGMENT_SIZE];
+
+        @Override
+        int getBytes() {
+            return BYTES;
+        }
+
+        @Override
+        void write(ByteBuffer b) {
+            b.put(mLevels);
+            b.asIntBuffer().put(mPids).put(mTids).put(mTags).put(mBodies);
+            b.position(b.position() + 4 * 4 * SEGMENT_SIZE);
+            b.asLongBuffer().put(mTimestamps).put(mTimes);
+            b.position(b.position() + 2 * 8 * SEGMENT_SIZE);
+        }
+
+        @Override
+        void read(ByteBuffer b) {
+            b.get(mLevels);
+            b.asIntBuffer().get(mPids).get(mTids).get(mTags).get(mBodies);
+            b.position(b.position() + 4 * 4 * SEGMENT_SIZE);
+            b.asLongBuffer().get(mTimestamps).get(mTimes);
+            b.position(b.position() + 2 * 8 * SEGMENT_SIZE);
+        }
+    }
+
+    /** The addresses of the texts of a segment of bodies, by id. */
+    private static final class BodyColumns extends Columns {
+        final long[] mTexts = new long[SEGMENT_SIZE];
+
+        @Override
+        int getBytes() {
+            return 8 * SEGMENT_SIZE;
+        }
+
+        @Override
+        void write(ByteBuffer b) {
+            b.asLongBuffer().put(mTexts);
+            b.position(b.position() + 8 * SEGMENT_SIZE);
+        }
+
+        @Override
+        void read(ByteBuffer b) {
+            b.asLongBuffer().get(mTexts);
+            b.position(b.position() + 8 * SEGMENT_SIZE);
+        }
+    }
+
+    /**
+     * Rows of a segment, or bodies of a segment of bodies. They are appended to the
+     * last segment, a full one is never written again, so that once full its columns
+     * may be spilled to the file of its store, see {@link LogStoreBudget}, and read
+     * back in as they were.
+     */
+    static final class Segment {
+        private final LogStore mStore;
+        /** Whether the segment holds bodies rather than rows. */
+        private final boolean mBodies;
+        private final int mBytes;
+        /** The columns, null while they are spilled. */
+        private volatile Columns mColumns;
+        /** Position of the columns in the file of the store once written, or -1. */
+        private long mPosition = -1;
+        private volatile boolean mFull;
+        /** Set on each read, cleared by the budget looking for a segment to spill. */
+        private boolean mReferenced = true;
+        /**
+         * Values of the rows of the events buffer, null until there is one. They are
+         * few next to the rows and stay in the heap.
+         */
+        volatile LogCatEventValues[] mEventValues;
+
+        Segment(LogStore store, boolean bodies) {
+            mStore = store;
+            mBodies = bodies;
+            mColumns = newColumns();
+            mBytes = mColumns.getBytes();
+        }
+
+        private Columns newColumns() {
+            return mBodies ? new BodyColumns() : new RowColumns();
+        }
+
+        LogStore getStore() {
+            return mStore;
+        }
+
+        /** @return the heap the segment takes while it is not spilled. */
+        int getBytes() {
+            return mBytes;
+        }
+
+        /** The columns of the rows, read back in if they were spilled. */
+        Columns columns() {
+            Columns columns = mColumns;
+            if (columns == null) {
+                columns = load();
+            }
+            mReferenced = true;
+            return columns;
+        }
+
+        private Columns load() {
+            Columns columns;
+            synchronized (this) {
+                columns = mColumns;
+                if (columns != null) {
+                    return columns;
+                }
+                columns = newColumns();
+                ByteBuffer b = ByteBuffer.allocate(mBytes);
+                try {
+                    mStore.mSpill.read(mPosition, b);
+                    b.flip();
+                    columns.read(b);
+                } catch (IOException e) {
+                    // the store was closed, or the disk failed: the rows read empty
+                    e.printStackTrace();
+                }
+                mColumns = columns;
+            }
+            // not while locked, the budget locks the segments it spills
+            if (!mStore.mClosed) {
+                LogStoreBudget.getInstance().add(this);
+            }
+            return columns;
+        }
+
+        boolean isReferenced() {
+            return mReferenced;
+        }
+
+        void clearReferenced() {
+            mReferenced = false;
+        }
+
+        /**
+         * Drop the columns from the heap, writing them to the file of the store the
+         * first time.
+         * @return false if the segment is still written, or could not be written.
+         */
+        synchronized boolean spill() {
+            Columns columns = mColumns;
+            if (!mFull || columns == null) {
+                return false;
+            }
+            if (mPosition < 0) {
+                ByteBuffer b = ByteBuffer.allocate(mBytes);
+                columns.write(b);
+                b.flip();
+                try {
+                    mPosition = mStore.mSpill.write(b);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    // kept in the heap for good
+                    mFull = false;
+                    return false;
+                }
+            }
+            // readers holding the columns keep reading them, they never change
+            mColumns = null;
+            return true;
+        }
+    }
+
+    /** The segments of the rows, the row {@code r} in segment {@code r >>> SEGMENT_BITS}. */
+    private volatile Segment[] mSegments = new Segment[16];
+    /** Address in {@link #mText} of each body, by id, in segments of bodies. */
+    private volatile Segment[] mBodySegments = new Segment[16];
+    private int mBodyCount;
+    /** Ids of the last bodies added, in access order. */
+    private final Map<String, Integer> mRecentBodies =
+            new LinkedHashMap<String, Integer>(2 * RECENT_BODIES, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > RECENT_BODIES;
+                }
+            };
+    private volatile long mSize;
+
+    /** Written and read by the UI thread only. */
+    private final RowBitSet mHighlights = new RowBitSet();
+    private final RowBitSet mSearchHits = new RowBitSet();
+
+    LogStore(File file) {
+        mFile = file;
+    }
+
+    File getFile() {
+        return mFile;
+    }
+
+    /** Number of rows, the rows below it may be read from any thread. */
+    long size() {
+        return mSize;
+    }
+
+    /**
+     * Append messages to the store.
+     * @return the row of the first one.
+     */
+    synchronized long addAll(List<LogCatMessage> messages) {
+        long first = mSize;
+        long size = first;
+        for (LogCatMessage m : messages) {
+            add(size++, m);
+        }
+        mSize = size;
+        return first;
+    }
+
+    private void add(long row, LogCatMessage m) {
+        if (mSymbols == null) {
+            mSymbols = m.getSymbols();
+        }
+        int i = (int) row & SEGMENT_MASK;
+        if (i == 0) {
+            mSegments = addSegment(mSegments, (int) (row >>> SEGMENT_BITS), false);
+        }
+        Segment s = segment(row);
+        // the last segment is never spilled
+        RowColumns c = (RowColumns) s.mColumns;
+        c.mTags[i] = m.getSymbols() == mSymbols ? m.getTagId() : mSymbols.intern(m.getTag());
+        c.mPids[i] = m.getPidValue();
+        c.mTids[i] = m.getTidValue();
+        c.mLevels[i] = (byte) m.getLogLevel().ordinal();
+        c.mTimestamps[i] = m.getTimestamp();
+
+        c.mTimes[i] = mText.add(m.getTime());
+        c.mBodies[i] = addBody(m.getMessage());
+
+        if (m.getEventValues() != null) {
+            if (s.mEventValues == null) {
+                s.mEventValues = new LogCatEventValues[SEGMENT_SIZE];
+            }
+            s.mEventValues[i] = m.getEventValues();
+        }
+    }
+
+    /**
+     * Add a segment after the last one, which is then full.
+     * @return {@code segments}, or a larger copy of it if it was full
+     */
+    private Segment[] addSegment(Segment[] segments, int index, boolean bodies) {
+        if (index == segments.length) {
+            // only the small array of the segments is copied, never the rows
+            segments = Arrays.copyOf(segments, 2 * index);
+        }
+        Segment s = new Segment(this, bodies);
+        segments[index] = s;
+        if (index > 0) {
+            segments[index - 1].mFull = true;
+        }
+        if (!mClosed) {
+            LogStoreBudget.getInstance().add(s);
+        }
+        return segments;
+    }
+
+    private Segment segment(long row) {
+        return mSegments[(int) (row >>> SEGMENT_BITS)];
+    }
+
+    private RowColumns columns(long row) {
+        return (RowColumns) mSegments[(int) (row >>> SEGMENT_BITS)].columns();
+    }
+
+    /** @return the id of {@code body}, the id of a recent equal body if there is one. */
+    private int addBody(String body) {
+        Integer id = body.length() <= MAX_SHARED_BODY_LENGTH ? mRecentBodies.get(body) : null;
+        if (id != null) {
+            return id;
+        }
+        int index = mBodyCount >>> SEGMENT_BITS;
+        if ((mBodyCount & SEGMENT_MASK) == 0) {
+            mBodySegments = addSegment(mBodySegments, index, true);
+        }
+        BodyColumns c = (BodyColumns) mBodySegments[index].mColumns;
+        c.mTexts[mBodyCount & SEGMENT_MASK] = mText.add(body);
+        if (body.length() <= MAX_SHARED_BODY_LENGTH) {
+            mRecentBodies.put(body, mBodyCount);
+        }
+        return mBodyCount++;
+    }
+
+    private long getBodyText(int id) {
+        BodyColumns c = (BodyColumns) mBodySegments[id >>> SEGMENT_BITS].columns();
+        return c.mTexts[id & SEGMENT_MASK];
+    }
+
+    /** The table of the tag ids of the rows. */
+    LogCatSymbolTable getSymbols() {
+        return mSymbols;
+    }
+
+    LogLevel getLogLevel(long row) {
+        return LEVELS[columns(row).mLevels[(int) row & SEGMENT_MASK]];
+    }
+
+    /** The pid of a row, or {@link LogCatMessage#NO_ID}. */
+    int getPidValue(long row) {
+        return columns(row).mPids[(int) row & SEGMENT_MASK];
+    }
+
+    /** The tid of a row, or {@link LogCatMessage#NO_ID}. */
+    int getTidValue(long row) {
+        return columns(row).mTids[(int) row & SEGMENT_MASK];
+    }
+
+    int getTagId(long row) {
+        return columns(row).mTags[(int) row & SEGMENT_MASK];
+    }
+
+    String getPid(long row) {
+        return LogCatMessage.formatId(getPidValue(row));
+    }
+
+    String getTid(long row) {
+        return LogCatMessage.formatId(getTidValue(row));
+    }
+
+    String getTag(long row) {
+        return mSymbols.get(getTagId(row));
+    }
+
+    /** See {@link LogCatMessage#getTimestamp()}. */
+    long getTimestamp(long row) {
+        return columns(row).mTimestamps[(int) row & SEGMENT_MASK];
+    }
+
+    String getTime(long row) {
+        return mText.get(columns(row).mTimes[(int) row & SEGMENT_MASK]);
+    }
+
+    /**
+     * The id of the body of a row. Rows of the same id have the same message, rows
+     * of different ids usually have different ones.
+     */
+    int getBodyId(long row) {
+        return columns(row).mBodies[(int) row & SEGMENT_MASK];
+    }
+
+    /** The text of the message of a row, its lines separated by '\n'. */
+    String getMessage(long row) {
+        return mText.get(getBodyText(getBodyId(row)));
+    }
+
+    /**
+     * The text of the message of a row, read in place.
+     * @param chars where to point to the text, its previous range is dropped
+     * @return {@code chars}
+     */
+    CharSequence getMessage(long row, TextArena.Chars chars) {
+        return mText.get(getBodyText(getBodyId(row)), chars);
+    }
+
+    /** See {@link LogCatMessage#getEventValues()}. */
+    LogCatEventValues getEventValues(long row) {
+        LogCatEventValues[] values = segment(row).mEventValues;
+        return values == null ? null : values[(int) row & SEGMENT_MASK];
+    }
+
+    /** Create the message of a row again. */
+    LogCatMessage getLogCatMessage(long row) {
+        String msg = getMessage(row);
+        LogCatMessage m = new LogCatMessage(getLogLevel(row), mSymbols, getPidValue(row),
+                getTidValue(row), getTagId(row), getTime(row), getTimestamp(row), msg);
+        int lines = 0;
+        for (int i = msg.indexOf('\n'); i >= 0; i = msg.indexOf('\n', i + 1)) {
+            lines++;
+        }
+        if (lines > 0) {
+            int[] lineStarts = new int[lines];
+            int line = 0;
+            for (int i = msg.indexOf('\n'); i >= 0; i = msg.indexOf('\n', i + 1)) {
+                lineStarts[line++] = i + 1;
+            }
+            m = m.withLines(msg, lineStarts);
+        }
+        LogCatEventValues values = getEventValues(row);
+        return values == null ? m : m.withEventValues(values);
+    }
+
+    /**
+     * Release the files holding the text and the spilled segments of the rows, once
+     * the store is no longer shown. Rows in the heap stay readable by the threads
+     * still holding the store, the rows spilled read empty.
+     */
+    void close() {
+        mClosed = true;
+        LogStoreBudget.getInstance().remove(this);
+        mText.close();
+        mSpill.close();
+    }
+
+    /** The rows highlighted by tag or pid. */
+    RowBitSet getHighlights() {
+        return mHighlights;
+    }
+
+    /** The rows found by a search. */
+    RowBitSet getSearchHits() {
+        return mSearchHits;
+    }
+
+    /** @return whether a row is highlighted or found by a search. */
+    boolean isMarked(long row) {
+        return mHighlights.get(row) || mSearchHits.get(row);
+    }
+
+    /** @return the first marked row from {@code from} on, or -1 if there is none. */
+    long nextMarkedRow(long from) {
+        long highlight = mHighlights.nextSetBit(from);
+        long hit = mSearchHits.nextSetBit(from);
+        return highlight < 0 || (hit >= 0 && hit < highlight) ? hit : highlight;
+    }
+
+    /** @return the last marked row up to {@code from}, or -1 if there is none. */
+    long previousMarkedRow(long from) {
+        return Math.max(mHighlights.previousSetBit(from), mSearchHits.previousSetBit(from));
+    }
+}
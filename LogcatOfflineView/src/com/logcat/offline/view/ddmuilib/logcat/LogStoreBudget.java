@@ -0,0 +1,112 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+
+/**
+ * The heap the rows of the loaded logs may take, shared by the {@link LogStore}s of
+ * all the panels. Past it, the coldest segments of rows are spilled to the
+ * {@link SegmentFile} of their store, and read back in when a row of theirs is read
+ * again, so that opening more logs than the heap holds gets slower rather than
+ * failing.
+ * <p/>
+ * A segment is cold when it was not read since the last time the budget looked at
+ * it, as in the clock algorithm: readers only set a flag of the segment, which costs
+ * next to nothing on each row read. The budget may be exceeded by the segments
+ * still written, one per store, and those read since its hand last went by.
+ */
+public final class LogStoreBudget {
+    /** Preference holding the budget in megabytes, 0 for half of the heap. */
+    public static final String BUDGET_PREFKEY = "logcat.store.budget";
+
+    private static final LogStoreBudget sInstance = new LogStoreBudget();
+
+    /** Bytes the resident segments may take. */
+    private long mBudget = defaultBudget();
+    /** Bytes the resident segments take. */
+    private long mUsed;
+    /** The segments whose rows are in the heap, the clock hand among them. */
+    private final List<LogStore.Segment> mResident = new ArrayList<LogStore.Segment>();
+    private int mHand;
+
+    private LogStoreBudget() {
+    }
+
+    static LogStoreBudget getInstance() {
+        return sInstance;
+    }
+
+    private static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Use the budget set in a preference store, and follow its changes. Spilling
+     * starts at once when the budget set is below the rows already loaded.
+     */
+    public static void load(final IPreferenceStore store) {
+        sInstance.setBudget(store.getInt(BUDGET_PREFKEY));
+        store.addPropertyChangeListener(new IPropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+                if (event.getProperty().equals(BUDGET_PREFKEY)) {
+                    sInstance.setBudget(store.getInt(BUDGET_PREFKEY));
+                }
+            }
+        });
+    }
+
+    /** Set the budget in megabytes, 0 for half of the heap. */
+    synchronized void setBudget(int megabytes) {
+        mBudget = megabytes > 0 ? (long) megabytes << 20 : defaultBudget();
+        spill(0);
+    }
+
+    /** Count a segment in, spilling others first if it does not fit. */
+    synchronized void add(LogStore.Segment segment) {
+        spill(segment.getBytes());
+        mResident.add(segment);
+        mUsed += segment.getBytes();
+    }
+
+    /** Stop counting the segments of a store closed. */
+    synchronized void remove(LogStore store) {
+        for (int i = mResident.size() - 1; i >= 0; i--) {
+            if (mResident.get(i).getStore() == store) {
+                mUsed -= mResident.remove(i).getBytes();
+                if (mHand > i) {
+                    mHand--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Spill cold segments until {@code bytes} more fit, or the hand went round once.
+     * The segments read since the previous round are spared even over the budget, so
+     * that a scan reading a few segments at once does not spill them in turn.
+     */
+    private void spill(long bytes) {
+        int left = mResident.size();
+        while (mUsed + bytes > mBudget && left-- > 0 && !mResident.isEmpty()) {
+            if (mHand >= mResident.size()) {
+                mHand = 0;
+            }
+            LogStore.Segment segment = mResident.get(mHand);
+            if (segment.isReferenced()) {
+                segment.clearReferenced();
+                mHand++;
+            } else if (segment.spill()) {
+                mResident.remove(mHand);
+                mUsed -= segment.getBytes();
+            } else {
+                // still written, or its file failed
+                mHand++;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * The {@code logcat -v long} format, where a header line owns all the message lines
+ * that follow it:
+ * <pre>
+ * [ 04-08 12:57:40.370    89:  103 I/Installer ]
+ * connecting...
+ * </pre>
+ * The fields of the last header are kept in the {@link ParseState}, and all the
+ * message lines of a header make one message.
+ */
+final class LongLogFormat implements ILogFormat {
+    /**
+     * This pattern is meant to parse the first line of a log message with the option
+     * 'logcat -v long'. The first line represents the date, tag, severity, etc.. while the
+     * following lines are the message (can be several lines).<br>
+     * This first line looks something like:<br>
+     * {@code "[ 00-00 00:00:00.000 <pid>:0x<???> <severity>/<tag>]"}
+     * <br>
+     * Note: severity is one of V, D, I, W, E, A? or F. However, there doesn't seem to be
+     *       a way to actually generate an A (assert) message. Log.wtf is supposed to generate
+     *       a message with severity A, however it generates the undocumented F level. In
+     *       such a case, the parser will change the level from F to A.<br>
+     * Note: the fraction of second value can have any number of digit.<br>
+     * Note: the tag should be trimmed as it may have spaces at the end.
+     */
+    private static final Pattern sLogHeaderPattern = Pattern.compile(
+            "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
+          + "\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$");
+
+    @Override
+    public String getName() {
+        return "long";
+    }
+
+    /** Only header lines are detected, message lines can hold anything. */
+    @Override
+    public boolean detect(byte[] b, int start, int end) {
+        return LogCatLineTokenizer.classify(b, start, end) == this
+                && sLogHeaderPattern.matcher(
+                        new String(b, start, end - start, MappedLineReader.UTF8)).matches();
+    }
+
+    @Override
+    public void parseLine(byte[] b, int start, int end, ParseState state,
+            List<LogCatMessage> messages) {
+        String line = new String(b, start, end - start, MappedLineReader.UTF8);
+        Matcher matcher = sLogHeaderPattern.matcher(line);
+        if (matcher.matches()) {
+            state.endRecord(messages);
+            state.time = matcher.group(1);
+            state.pid = matcher.group(2);
+            state.tid = matcher.group(3);
+            state.logLevel = LogLevel.getByLetterString(matcher.group(4));
+            state.tag = matcher.group(5).trim();
+            /*
+             * LogLevel doesn't support messages with severity "F".
+             * Log.wtf() is supposed to generate "A", but generates "F".
+             */
+            if (state.logLevel == null && matcher.group(4).equals("F")) {
+                state.logLevel = LogLevel.ASSERT;
+            }
+            return;
+        }
+        if (state.tag == null || state.tag.equals("")) {
+            return;
+        }
+        // the message lines of a header make one record
+        if (!state.continueRecord(line)) {
+            state.startRecord(state.newMessage(state.logLevel, state.pid, state.tid,
+                    state.tag, state.time, line), messages);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 compressor for the blocks of a {@link TextArena}, in the block format
+ * of LZ4. It trades ratio for speed: logcat text, made of the same tags and
+ * phrases over and over, still shrinks several times, at a cost small next to
+ * parsing it.
+ * <p/>
+ * A block is a run of sequences, each a token, literals, and a match:
+ * <pre>
+ * u4 literal length, u4 match length - 4, [length bytes], literals,
+ * u16le match offset, [length bytes]
+ * </pre>
+ * A length of 15 in the token goes on in the bytes that follow, 255 meaning more
+ * to come. The last sequence only has literals. An instance keeps its hash table,
+ * it must not be used by two threads at once.
+ */
+final class LzCodec {
+    private static final int MIN_MATCH = 4;
+    /** Matches end at least this far from the end of a block, as in LZ4. */
+    private static final int LAST_LITERALS = 5;
+    /** No match starts in the last bytes of a block. */
+    private static final int MATCH_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 14;
+    /** Misses before the compressor starts skipping bytes of text that does not repeat. */
+    private static final int SKIP_TRIGGER = 6;
+
+    /** Last offset of each hashed 4 bytes. */
+    private final int[] mTable = new int[1 << HASH_BITS];
+
+    /** @return the size of a buffer large enough to compress {@code length} bytes. */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compress {@code [0, length)} of {@code src} to {@code dst}, which holds at least
+     * {@link #maxCompressedLength(int)} bytes.
+     * @return the number of bytes written to {@code dst}
+     */
+    int compress(byte[] src, int length, byte[] dst) {
+        Arrays.fill(mTable, -1);
+        int d = 0;
+        int anchor = 0;
+        int p = 0;
+        int limit = length - MATCH_LIMIT;
+        int misses = 1 << SKIP_TRIGGER;
+        while (p < limit) {
+            int sequence = readInt(src, p);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = mTable[hash];
+            mTable[hash] = p;
+            if (ref < 0 || p - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                p += misses++ >>> SKIP_TRIGGER;
+                continue;
+            }
+            misses = 1 << SKIP_TRIGGER;
+            int end = p + MIN_MATCH;
+            int matchEnd = length - LAST_LITERALS;
+            while (end < matchEnd && src[end] == src[ref + end - p]) {
+                end++;
+            }
+            d = writeSequence(src, anchor, p - anchor, dst, d, p - ref, end - p);
+            p = end;
+            anchor = end;
+        }
+        int literals = length - anchor;
+        d = writeLength(dst, d, literals, 0);
+        System.arraycopy(src, anchor, dst, d, literals);
+        return d + literals;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dst,
+            int d, int offset, int matchLength) {
+        d = writeLength(dst, d, literals, matchLength - MIN_MATCH);
+        System.arraycopy(src, literalStart, dst, d, literals);
+        d += literals;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        int length = matchLength - MIN_MATCH;
+        if (length >= 15) {
+            d = writeExtraLength(dst, d, length - 15);
+        }
+        return d;
+    }
+
+    /** Write the token, and the extra bytes of the literal length. */
+    private static int writeLength(byte[] dst, int d, int literals, int matchLength) {
+        dst[d++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchLength, 15));
+        if (literals >= 15) {
+            d = writeExtraLength(dst, d, literals - 15);
+        }
+        return d;
+    }
+
+    private static int writeExtraLength(byte[] dst, int d, int length) {
+        while (length >= 255) {
+            dst[d++] = (byte) 255;
+            length -= 255;
+        }
+        dst[d++] = (byte) length;
+        return d;
+    }
+
+    /**
+     * Decompress {@code [0, length)} of {@code src} to all of {@code dst}, which must
+     * have the size of the text compressed.
+     */
+    static void decompress(byte[] src, int length, byte[] dst) {
+        int s = 0;
+        int d = 0;
+        while (s < length) {
+            int token = src[s++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[s++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, s, dst, d, literals);
+            s += literals;
+            d += literals;
+            if (d == dst.length) {
+                break;
+            }
+            int offset = (src[s] & 0xff) | ((src[s + 1] & 0xff) << 8);
+            s += 2;
+            int matchLength = token & 15;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    b = src[s++] & 0xff;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = d - offset;
+            if (offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, d, matchLength);
+                d += matchLength;
+            } else {
+                // the match overlaps the bytes it writes, such as a run of spaces
+                for (int end = d + matchLength; d < end; d++, ref++) {
+                    dst[d] = dst[ref];
+                }
+            }
+        }
+    }
+
+    private static int readInt(byte[] b, int p) {
+        return (b[p] & 0xff) | ((b[p + 1] & 0xff) << 8) | ((b[p + 2] & 0xff) << 16)
+                | (b[p + 3] << 24);
+    }
+}
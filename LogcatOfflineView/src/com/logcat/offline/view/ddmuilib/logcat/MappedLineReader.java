@@ -0,0 +1,195 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the lines of a log file through a memory mapping of the file. Line
+ * boundaries are found on the raw bytes, see {@link ILineReader}.
+ * <p/>
+ * The file is mapped in windows of {@link #WINDOW_SIZE} bytes, so files larger
+ * than 2 GB can be read as well.
+ */
+public final class MappedLineReader implements ILineReader {
+    public static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /** Size of the region of the file that is mapped at a time. */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mEnd;
+
+    private MappedByteBuffer mWindow;
+    private long mWindowStart;
+    private int mWindowSize = WINDOW_SIZE;
+
+    /** File offset of the first byte not consumed yet. */
+    private long mPosition;
+    /** File offset of the current line. */
+    private long mLineOffset;
+    /** The previous line ended with '\r', so a '\n' right after it is part of the same line end. */
+    private boolean mSkipLF;
+
+    private byte[] mLine = new byte[1024];
+    private int mLineStart;
+    private int mLineEnd;
+
+    /**
+     * Open a reader over the whole file.
+     */
+    public MappedLineReader(File file) throws IOException {
+        this(file, 0, -1);
+    }
+
+    /**
+     * Open a reader over the bytes {@code [start, end)} of the file. {@code start}
+     * is expected to be the first byte of a line. An {@code end} of -1 stands for
+     * the end of the file.
+     */
+    public MappedLineReader(File file, long start, long end) throws IOException {
+        mFile = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        mChannel = mFile.getChannel();
+        long size = mChannel.size();
+        mEnd = end < 0 || end > size ? size : end;
+        mPosition = Math.min(start, mEnd);
+        mWindowStart = mPosition;
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        if (mSkipLF && mPosition < mEnd) {
+            ensureMapped(mPosition);
+            if (mWindow.get((int) (mPosition - mWindowStart)) == LF) {
+                mPosition++;
+            }
+        }
+        mSkipLF = false;
+        if (mPosition >= mEnd) {
+            return false;
+        }
+
+        // find the end of the line, remapping the window if the line crosses it
+        long lineEnd;
+        while (true) {
+            ensureMapped(mPosition);
+            int from = (int) (mPosition - mWindowStart);
+            int limit = mWindow.limit();
+            int i = from;
+            byte b = 0;
+            while (i < limit && (b = mWindow.get(i)) != LF && b != CR) {
+                i++;
+            }
+            if (i < limit) {
+                lineEnd = mWindowStart + i;
+                mSkipLF = b == CR;
+                break;
+            }
+            if (mWindowStart + limit >= mEnd) {
+                // last line of the range, without a trailing new line
+                lineEnd = mEnd;
+                break;
+            }
+            if (from == 0) {
+                // a single line longer than the window: map a larger one
+                mWindowSize = (int) Math.min(Integer.MAX_VALUE, 2L * mWindowSize);
+            }
+            map(mPosition);
+        }
+
+        mLineOffset = mPosition;
+        int start = (int) (mPosition - mWindowStart);
+        int end = (int) (lineEnd - mWindowStart);
+        mPosition = lineEnd + 1;
+
+        while (start < end && (mWindow.get(start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (mWindow.get(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+
+        int length = end - start;
+        if (length > mLine.length) {
+            mLine = new byte[Math.max(length, 2 * mLine.length)];
+        }
+        mWindow.position(start);
+        mWindow.get(mLine, 0, length);
+        mLineStart = 0;
+        mLineEnd = length;
+        return true;
+    }
+
+    private void ensureMapped(long position) throws IOException {
+        if (mWindow == null || position < mWindowStart
+                || position >= mWindowStart + mWindow.limit()) {
+            map(position);
+        }
+    }
+
+    private void map(long position) throws IOException {
+        mWindowStart = position;
+        long size = Math.min(mWindowSize, mEnd - position);
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return mLine;
+    }
+
+    @Override
+    public int getLineStart() {
+        return mLineStart;
+    }
+
+    @Override
+    public int getLineEnd() {
+        return mLineEnd;
+    }
+
+    @Override
+    public boolean isLineEmpty() {
+        return mLineStart == mLineEnd;
+    }
+
+    @Override
+    public String getLine() {
+        return new String(mLine, mLineStart, mLineEnd - mLineStart, UTF8);
+    }
+
+    /** File offset of the first byte of the current line. */
+    @Override
+    public long getLineOffset() {
+        return mLineOffset;
+    }
+
+    /** File offset of the first byte that has not been read yet. */
+    public long getPosition() {
+        return Math.min(mPosition, mEnd);
+    }
+
+    @Override
+    public long getInputPosition() {
+        return getPosition();
+    }
+
+    @Override
+    public long getInputSize() {
+        return mEnd;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // A mapping can not be released explicitly, it goes away with the buffer.
+        mWindow = null;
+        mFile.close();
+    }
+}
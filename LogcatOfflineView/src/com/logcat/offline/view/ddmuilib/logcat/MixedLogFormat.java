@@ -0,0 +1,47 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.List;
+
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * Several formats in one file, such as a concatenation of captures: every line is
+ * parsed in the format it looks like. A line that looks like no format continues the
+ * last recognized one, the message lines of {@code -v long} for example.
+ */
+final class MixedLogFormat implements ILogFormat {
+    private final LogFormats mFormats;
+
+    MixedLogFormat(LogFormats formats) {
+        mFormats = formats;
+    }
+
+    @Override
+    public String getName() {
+        return "mixed";
+    }
+
+    @Override
+    public boolean detect(byte[] b, int start, int end) {
+        return mFormats.detect(b, start, end) != null;
+    }
+
+    @Override
+    public void parseLine(byte[] b, int start, int end, ParseState state,
+            List<LogCatMessage> messages) {
+        ILogFormat format = mFormats.detect(b, start, end);
+        if (format != null) {
+            state.lastFormat = format;
+        } else {
+            format = state.lastFormat;
+        }
+        if (format == null) {
+            LogFormats.addUnformattedLine(
+                    new String(b, start, end - start, MappedLineReader.UTF8), false, state,
+                    messages);
+            return;
+        }
+        format.parseLine(b, start, end, state, messages);
+    }
+}
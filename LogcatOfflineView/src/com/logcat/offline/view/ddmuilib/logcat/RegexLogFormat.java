@@ -0,0 +1,136 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmuilib.logcat.LogCatMessage;
+import com.logcat.offline.view.ddmuilib.logcat.LogCatMessageParser.ParseState;
+
+/**
+ * A format of single line messages described by a regular expression, whose groups
+ * hold the fields of a message. Fields without a group are "?".
+ * <p/>
+ * The level group is read by its first letter, so that both "I" and "INFO" work.
+ * Lines with a level that is not one of V, D, I, W, E, A or F are dropped, and so
+ * are lines with an empty tag when {@link #mRequireTag} is set.
+ */
+class RegexLogFormat implements ILogFormat {
+    private final String mName;
+    private final Pattern mPattern;
+    private final int mTimeGroup;
+    private final int mLevelGroup;
+    private final int mPidGroup;
+    private final int mTidGroup;
+    private final int mTagGroup;
+    private final int mMessageGroup;
+    private final boolean mRequireTag;
+    /** Level of the messages when there is no level group. */
+    private final LogLevel mDefaultLevel;
+
+    /**
+     * @param groups the group of the pattern holding each field, in the order time,
+     *            level, pid, tid, tag and message, 0 for a field the format does not have.
+     * @param requireTag whether lines with an empty tag are dropped
+     */
+    RegexLogFormat(String name, Pattern pattern, int[] groups, boolean requireTag,
+            LogLevel defaultLevel) {
+        mName = name;
+        mPattern = pattern;
+        mTimeGroup = groups[0];
+        mLevelGroup = groups[1];
+        mPidGroup = groups[2];
+        mTidGroup = groups[3];
+        mTagGroup = groups[4];
+        mMessageGroup = groups[5];
+        mRequireTag = requireTag;
+        mDefaultLevel = defaultLevel;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    Pattern getPattern() {
+        return mPattern;
+    }
+
+    @Override
+    public boolean detect(byte[] b, int start, int end) {
+        return mPattern.matcher(new String(b, start, end - start, MappedLineReader.UTF8))
+                .matches();
+    }
+
+    @Override
+    public void parseLine(byte[] b, int start, int end, ParseState state,
+            List<LogCatMessage> messages) {
+        if (parseFast(b, start, end, state, messages)) {
+            return;
+        }
+        String line = new String(b, start, end - start, MappedLineReader.UTF8);
+        Matcher matcher = mPattern.matcher(line);
+        if (!matcher.matches()) {
+            LogFormats.addUnformattedLine(line, detect(b, start, end), state, messages);
+            return;
+        }
+        LogCatMessage m = createMessage(matcher, state);
+        if (m != null) {
+            state.startRecord(m, messages);
+        } else {
+            state.endRecord(messages);
+        }
+    }
+
+    /**
+     * Parse a line without decoding it, for the formats that have a scanner in
+     * {@link LogCatLineTokenizer}.
+     * @return false if the line has to go through the regular expression instead.
+     */
+    protected boolean parseFast(byte[] b, int start, int end, ParseState state,
+            List<LogCatMessage> messages) {
+        return false;
+    }
+
+    /**
+     * Create the message of a line matched by the pattern of this format.
+     * @return the message, or null if the line is dropped.
+     */
+    LogCatMessage createMessage(Matcher matcher, ParseState state) {
+        LogLevel level = mDefaultLevel;
+        if (mLevelGroup > 0) {
+            String letter = matcher.group(mLevelGroup);
+            level = LogLevel.getByLetterString(letter);
+            /*
+             * LogLevel doesn't support messages with severity "F".
+             * Log.wtf() is supposed to generate "A", but generates "F".
+             */
+            if (level == null && letter.startsWith("F")) {
+                level = LogLevel.ASSERT;
+            }
+            if (level == null) {
+                return null;
+            }
+        }
+        String tag = group(matcher, mTagGroup);
+        if (mTagGroup > 0) {
+            tag = tag.trim();
+            if (mRequireTag && tag.length() == 0) {
+                return null;
+            }
+        }
+        String pid = group(matcher, mPidGroup).trim();
+        String tid = group(matcher, mTidGroup).trim();
+        return state.newMessage(level, pid, tid, tag, group(matcher, mTimeGroup),
+                mMessageGroup > 0 ? matcher.group(mMessageGroup) : matcher.group());
+    }
+
+    private static String group(Matcher matcher, int group) {
+        if (group == 0) {
+            return "?";
+        }
+        String value = matcher.group(group);
+        return value == null ? "?" : value;
+    }
+}
@@ -0,0 +1,119 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.Arrays;
+
+/**
+ * A set of rows of a {@link LogStore}, one bit per row. Clearing the set and
+ * walking it forward or backward work a 64 bit word at a time, so that the rows
+ * highlighted in a log of millions of messages are changed and found again without
+ * looking at each row.
+ */
+final class RowBitSet {
+    private long[] mWords = new long[0];
+
+    boolean get(long row) {
+        long word = row >>> 6;
+        return word < mWords.length && (mWords[(int) word] & (1L << row)) != 0;
+    }
+
+    void set(long row) {
+        int word = (int) (row >>> 6);
+        if (word >= mWords.length) {
+            mWords = Arrays.copyOf(mWords, Math.max(word + 1, 2 * mWords.length));
+        }
+        mWords[word] |= 1L << row;
+    }
+
+    void clear() {
+        Arrays.fill(mWords, 0L);
+    }
+
+    /** Add the rows of another set to this one. */
+    void or(RowBitSet rows) {
+        long[] words = rows.mWords;
+        if (words.length > mWords.length) {
+            mWords = Arrays.copyOf(mWords, words.length);
+        }
+        for (int i = 0; i < words.length; i++) {
+            mWords[i] |= words[i];
+        }
+    }
+
+    /** @return the first row of the set from {@code from} on, or -1 if there is none. */
+    long nextSetBit(long from) {
+        if (from >>> 6 >= mWords.length) {
+            return -1;
+        }
+        int word = (int) (from >>> 6);
+        long bits = mWords[word] & (-1L << from);
+        while (bits == 0) {
+            if (++word == mWords.length) {
+                return -1;
+            }
+            bits = mWords[word];
+        }
+        return ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /** @return the last row of the set up to {@code from}, or -1 if there is none. */
+    long previousSetBit(long from) {
+        if (from < 0) {
+            return -1;
+        }
+        int word;
+        long bits;
+        if (from >>> 6 >= mWords.length) {
+            word = mWords.length - 1;
+            bits = word < 0 ? 0 : mWords[word];
+        } else {
+            word = (int) (from >>> 6);
+            bits = mWords[word] & (-1L >>> (63 - (from & 63)));
+        }
+        while (bits == 0) {
+            if (--word < 0) {
+                return -1;
+            }
+            bits = mWords[word];
+        }
+        return ((long) word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /** @return the number of rows of the set from {@code from} to {@code to}, excluded. */
+    int count(long from, long to) {
+        int count = 0;
+        int word = (int) (from >>> 6);
+        int last = (int) Math.min(to >>> 6, mWords.length);
+        long mask = -1L << from;
+        for (; word < last; word++) {
+            count += Long.bitCount(mWords[word] & mask);
+            mask = -1L;
+        }
+        if (word < mWords.length && (to & 63) != 0) {
+            count += Long.bitCount(mWords[word] & mask & (-1L >>> (64 - (to & 63))));
+        }
+        return count;
+    }
+
+    /**
+     * @return the row of the set that {@code n} others precede from {@code from} on,
+     * or -1 if there is none.
+     */
+    long select(long from, long n) {
+        if (from >>> 6 >= mWords.length) {
+            return -1;
+        }
+        int word = (int) (from >>> 6);
+        long bits = mWords[word] & (-1L << from);
+        for (int count = Long.bitCount(bits); n >= count; count = Long.bitCount(bits)) {
+            n -= count;
+            if (++word == mWords.length) {
+                return -1;
+            }
+            bits = mWords[word];
+        }
+        for (; n > 0; n--) {
+            bits &= bits - 1;
+        }
+        return ((long) word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+}
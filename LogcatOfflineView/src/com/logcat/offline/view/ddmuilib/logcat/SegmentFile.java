@@ -0,0 +1,86 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary file the cold segments of the rows of a {@link LogStore} are spilled
+ * to, so that the rows of a log are not bound by the heap either. A segment is
+ * written once, column after column, and read back whole when one of its rows is
+ * read again. The file is created on the first segment written.
+ */
+final class SegmentFile implements Closeable {
+    private File mFile;
+    private FileChannel mChannel;
+    private long mSize;
+    private boolean mClosed;
+
+    /**
+     * Append the remaining bytes of {@code data}.
+     * @return the position they were written at.
+     */
+    synchronized long write(ByteBuffer data) throws IOException {
+        if (mChannel == null) {
+            open();
+        }
+        long position = mSize;
+        while (data.hasRemaining()) {
+            mSize += mChannel.write(data, mSize);
+        }
+        return position;
+    }
+
+    private void open() throws IOException {
+        if (mClosed) {
+            throw new IOException("segment file closed");
+        }
+        mFile = File.createTempFile("logcat", ".rows");
+        mFile.deleteOnExit();
+        mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        // where the system allows it, the file is gone as soon as it is closed
+        if (mFile.delete()) {
+            mFile = null;
+        }
+    }
+
+    /** Fill the remaining bytes of {@code data} with those written at {@code position}. */
+    void read(long position, ByteBuffer data) throws IOException {
+        FileChannel channel;
+        synchronized (this) {
+            channel = mChannel;
+        }
+        if (channel == null) {
+            throw new IOException("segment file closed");
+        }
+        // positional reads of a channel may go on at once, and with a write
+        while (data.hasRemaining()) {
+            int n = channel.read(data, position);
+            if (n < 0) {
+                throw new IOException("segment file truncated");
+            }
+            position += n;
+        }
+    }
+
+    /** Release the file, the segments written are lost. */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mChannel = null;
+        }
+        if (mFile != null) {
+            mFile.delete();
+            mFile = null;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the lines of a log from a stream, for inputs that can not be mapped such as
+ * compressed files. Line boundaries are found on the raw bytes, see
+ * {@link ILineReader}. Lines are not copied: {@link #getBuffer()} is the read
+ * buffer itself.
+ */
+public final class StreamLineReader implements ILineReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    private final InputStream mInput;
+    private final CountingInputStream mCounter;
+    private final long mInputSize;
+
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    /** Offset in the log of {@code mBuffer[0]}. */
+    private long mBufferOffset;
+    /** First byte of {@link #mBuffer} not consumed yet. */
+    private int mPosition;
+    /** End of the valid bytes of {@link #mBuffer}. */
+    private int mLimit;
+    private boolean mEof;
+    /** The previous line ended with '\r', so a '\n' right after it is part of the same line end. */
+    private boolean mSkipLF;
+
+    private long mLineOffset;
+    private int mLineStart;
+    private int mLineEnd;
+
+    /**
+     * @param input the log
+     * @param counter counts the bytes read from the file underneath {@code input},
+     *            whose size is {@code inputSize}
+     */
+    public StreamLineReader(InputStream input, CountingInputStream counter, long inputSize) {
+        mInput = input;
+        mCounter = counter;
+        mInputSize = inputSize;
+    }
+
+    @Override
+    public boolean nextLine() throws IOException {
+        if (mSkipLF) {
+            if (mPosition == mLimit) {
+                fill();
+            }
+            if (mPosition < mLimit && mBuffer[mPosition] == LF) {
+                mPosition++;
+            }
+            mSkipLF = false;
+        }
+
+        // find the end of the line, reading more of the stream if it is not in the buffer
+        int scanned = mPosition;
+        int lineEnd;
+        while (true) {
+            int i = scanned;
+            byte b = 0;
+            while (i < mLimit && (b = mBuffer[i]) != LF && b != CR) {
+                i++;
+            }
+            if (i < mLimit) {
+                lineEnd = i;
+                mSkipLF = b == CR;
+                break;
+            }
+            if (mEof) {
+                if (mPosition == mLimit) {
+                    return false;
+                }
+                // last line, without a trailing new line
+                lineEnd = mLimit;
+                break;
+            }
+            scanned = i - mPosition;
+            fill();
+            scanned += mPosition;
+        }
+
+        mLineOffset = mBufferOffset + mPosition;
+        int start = mPosition;
+        int end = lineEnd;
+        mPosition = Math.min(lineEnd + 1, mLimit);
+
+        while (start < end && (mBuffer[start] & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (mBuffer[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        mLineStart = start;
+        mLineEnd = end;
+        return true;
+    }
+
+    /**
+     * Read more of the stream. The bytes not consumed yet are moved to the start of
+     * the buffer, which grows if they fill it.
+     */
+    private void fill() throws IOException {
+        int remaining = mLimit - mPosition;
+        if (remaining == mBuffer.length) {
+            byte[] buffer = new byte[2 * mBuffer.length];
+            System.arraycopy(mBuffer, mPosition, buffer, 0, remaining);
+            mBuffer = buffer;
+        } else if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+        }
+        mBufferOffset += mPosition;
+        mPosition = 0;
+        mLimit = remaining;
+
+        int count = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (count < 0) {
+            mEof = true;
+        } else {
+            mLimit += count;
+        }
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    @Override
+    public int getLineStart() {
+        return mLineStart;
+    }
+
+    @Override
+    public int getLineEnd() {
+        return mLineEnd;
+    }
+
+    @Override
+    public boolean isLineEmpty() {
+        return mLineStart == mLineEnd;
+    }
+
+    @Override
+    public String getLine() {
+        return new String(mBuffer, mLineStart, mLineEnd - mLineStart, MappedLineReader.UTF8);
+    }
+
+    /** Offset of the first byte of the current line in the decompressed log. */
+    @Override
+    public long getLineOffset() {
+        return mLineOffset;
+    }
+
+    @Override
+    public long getInputPosition() {
+        return mCounter.getCount();
+    }
+
+    @Override
+    public long getInputSize() {
+        return mInputSize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+}
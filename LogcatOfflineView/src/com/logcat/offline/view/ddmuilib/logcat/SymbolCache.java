@@ -0,0 +1,101 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.android.ddmuilib.logcat.LogCatSymbolTable;
+
+/**
+ * Cache of the ids of one field of the messages, such as their tags, in front of a
+ * {@link LogCatSymbolTable}. Each parser thread has its own, so that looking up a
+ * field that was seen before neither decodes it nor locks the shared table.
+ */
+final class SymbolCache {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final LogCatSymbolTable mSymbols;
+
+    /** Open addressing table of the raw bytes of the values seen, and their ids. */
+    private byte[][] mKeys = new byte[INITIAL_CAPACITY][];
+    private int[] mIds = new int[INITIAL_CAPACITY];
+    private int mCount;
+
+    private final Map<String, Integer> mStrings = new HashMap<String, Integer>();
+
+    SymbolCache(LogCatSymbolTable symbols) {
+        mSymbols = symbols;
+    }
+
+    /** @return the id of the UTF-8 value {@code [start, end)} of {@code b}. */
+    int intern(byte[] b, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + b[i];
+        }
+        int mask = mKeys.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        byte[] key;
+        while ((key = mKeys[slot]) != null) {
+            if (equals(key, b, start, end)) {
+                return mIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int id = mSymbols.intern(new String(b, start, end - start, MappedLineReader.UTF8));
+        key = new byte[end - start];
+        System.arraycopy(b, start, key, 0, key.length);
+        mKeys[slot] = key;
+        mIds[slot] = id;
+        if (++mCount * 2 > mKeys.length) {
+            grow();
+        }
+        return id;
+    }
+
+    /** @return the id of {@code value}. */
+    int intern(String value) {
+        Integer id = mStrings.get(value);
+        if (id == null) {
+            id = mSymbols.intern(value);
+            mStrings.put(value, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        byte[][] keys = mKeys;
+        int[] ids = mIds;
+        mKeys = new byte[2 * keys.length][];
+        mIds = new int[2 * keys.length];
+        int mask = mKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            byte[] key = keys[i];
+            if (key == null) {
+                continue;
+            }
+            int hash = 0;
+            for (byte c : key) {
+                hash = 31 * hash + c;
+            }
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (mKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            mKeys[slot] = key;
+            mIds[slot] = ids[i];
+        }
+    }
+
+    private static boolean equals(byte[] key, byte[] b, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != b[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,369 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the texts of a {@link LogStore}, such as the times and message bodies of its
+ * rows, compressed and outside of the Java heap, so that the size of a log is not bound by the heap and
+ * its text is not scanned by the garbage collector.
+ * <p/>
+ * Texts are appended to blocks of 64 KB. Once full, a block is compressed by an
+ * {@link LzCodec}, which shrinks logcat text several times at a small cost next to
+ * parsing it, and written to segments of a temporary file
+ * mapped in memory; the system pages them out to the file rather than to swap. If
+ * no temporary file can be created, segments are direct buffers. Reading a text
+ * decompresses its block, the last blocks read are kept in a small cache, so that
+ * painting the rows around the viewport or scanning the rows in order
+ * decompresses each block once.
+ * <p/>
+ * The address of a text is the index of its block and its offset in the block, so
+ * the arena is not limited to 2 GB. A text is stored one byte per char when all its
+ * chars are in Latin-1, which is the case of nearly all logs, and two bytes per
+ * char otherwise:
+ * <pre>
+ * u8 wide, i32 length, chars
+ * </pre>
+ * Texts are added by a single writer at a time. Readers may read, from any thread,
+ * the texts whose address they got after it was written.
+ */
+final class TextArena implements Closeable {
+    /** Bytes per segment, blocks larger than this get a segment of their own. */
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    /** Bytes per block before it is compressed, texts longer than this get a block of their own. */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /** Number of decompressed blocks kept. */
+    private static final int CACHED_BLOCKS = 32;
+    private static final int HEADER_SIZE = 5;
+
+    private File mFile;
+    private FileChannel mChannel;
+    /** Bytes of {@link #mFile} mapped so far. */
+    private long mFileSize;
+
+    private volatile ByteBuffer[] mSegments = new ByteBuffer[16];
+    private int mSegmentCount;
+    /** Bytes used in the last segment. */
+    private int mUsed;
+
+    /** The compressed blocks, by index. The last block is still open. */
+    private volatile Block[] mBlocks = new Block[64];
+    /** The block texts are added to, published after the blocks before it. */
+    private volatile OpenBlock mOpen = new OpenBlock(0, new byte[BLOCK_SIZE]);
+    /** Bytes used in {@link #mOpen}. */
+    private int mOpenUsed;
+
+    private final LzCodec mCodec = new LzCodec();
+    private byte[] mCompressed = new byte[LzCodec.maxCompressedLength(BLOCK_SIZE)];
+    /** Decompressed blocks by index, in access order. */
+    private final Map<Integer, byte[]> mCache =
+            new LinkedHashMap<Integer, byte[]>(2 * CACHED_BLOCKS, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                    return size() > CACHED_BLOCKS;
+                }
+            };
+
+    /** A block once compressed: where it is in the segments, and its sizes. */
+    private static final class Block {
+        final long mAddress;
+        final int mCompressedSize;
+        final int mSize;
+
+        Block(long address, int compressedSize, int size) {
+            mAddress = address;
+            mCompressedSize = compressedSize;
+            mSize = size;
+        }
+    }
+
+    /** The block being written. Its array is never reused, readers may keep it. */
+    private static final class OpenBlock {
+        final int mIndex;
+        final byte[] mData;
+
+        OpenBlock(int index, byte[] data) {
+            mIndex = index;
+            mData = data;
+        }
+    }
+
+    TextArena() {
+        try {
+            mFile = File.createTempFile("logcat", ".text");
+            mFile.deleteOnExit();
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            // where the system allows it, the file is gone as soon as its mappings are
+            if (mFile.delete()) {
+                mFile = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            mChannel = null;
+        }
+    }
+
+    /**
+     * Add a text.
+     * @return the address of the text, a block index in the high 32 bits and an
+     * offset in the block in the low ones.
+     */
+    long add(String text) {
+        boolean wide = isWide(text);
+        int size = HEADER_SIZE + text.length() * (wide ? 2 : 1);
+        OpenBlock open = mOpen;
+        if (mOpenUsed + size > open.mData.length) {
+            if (mOpenUsed == 0) {
+                // nothing to compress yet, only a larger block is needed
+                mOpen = open = new OpenBlock(open.mIndex, new byte[size]);
+            } else {
+                open = seal(size);
+            }
+        }
+        byte[] data = open.mData;
+        int p = mOpenUsed;
+        long address = ((long) open.mIndex << 32) | p;
+        data[p] = (byte) (wide ? 1 : 0);
+        putInt(data, p + 1, text.length());
+        mOpenUsed = put(data, p + HEADER_SIZE, text, wide);
+        return address;
+    }
+
+    private static boolean isWide(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xff) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int put(byte[] data, int p, String s, boolean wide) {
+        int length = s.length();
+        if (wide) {
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                data[p++] = (byte) (c >>> 8);
+                data[p++] = (byte) c;
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                data[p++] = (byte) s.charAt(i);
+            }
+        }
+        return p;
+    }
+
+    private static void putInt(byte[] data, int p, int value) {
+        data[p] = (byte) (value >>> 24);
+        data[p + 1] = (byte) (value >>> 16);
+        data[p + 2] = (byte) (value >>> 8);
+        data[p + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] data, int p) {
+        return (data[p] << 24) | ((data[p + 1] & 0xff) << 16) | ((data[p + 2] & 0xff) << 8)
+                | (data[p + 3] & 0xff);
+    }
+
+    /**
+     * Compress the open block and open the next one, large enough for a text of
+     * {@code size} bytes.
+     */
+    private OpenBlock seal(int size) {
+        OpenBlock open = mOpen;
+        int used = mOpenUsed;
+        if (mCompressed.length < LzCodec.maxCompressedLength(used)) {
+            mCompressed = new byte[LzCodec.maxCompressedLength(used)];
+        }
+        int length = mCodec.compress(open.mData, used, mCompressed);
+        long address = allocate(length);
+        ByteBuffer segment = mSegments[(int) (address >>> 32)].duplicate();
+        segment.position((int) address);
+        segment.put(mCompressed, 0, length);
+
+        Block[] blocks = mBlocks;
+        if (open.mIndex == blocks.length) {
+            blocks = Arrays.copyOf(blocks, 2 * blocks.length);
+        }
+        blocks[open.mIndex] = new Block(address, length, used);
+        mBlocks = blocks;
+        synchronized (mCache) {
+            // the block was just written, it is likely to be read soon
+            mCache.put(open.mIndex, open.mData);
+        }
+        mOpen = new OpenBlock(open.mIndex + 1, new byte[Math.max(BLOCK_SIZE, size)]);
+        mOpenUsed = 0;
+        return mOpen;
+    }
+
+    /** Allocate {@code size} bytes in the segments, @return their address. */
+    private long allocate(int size) {
+        if (mSegmentCount == 0 || mUsed + size > mSegments[mSegmentCount - 1].capacity()) {
+            ByteBuffer[] segments = mSegments;
+            if (mSegmentCount == segments.length) {
+                segments = Arrays.copyOf(segments, 2 * segments.length);
+            }
+            segments[mSegmentCount++] = newSegment(Math.max(SEGMENT_SIZE, size));
+            mSegments = segments;
+            mUsed = 0;
+        }
+        long address = ((long) (mSegmentCount - 1) << 32) | mUsed;
+        mUsed += size;
+        return address;
+    }
+
+    private ByteBuffer newSegment(int size) {
+        if (mChannel != null) {
+            try {
+                ByteBuffer segment = mChannel.map(FileChannel.MapMode.READ_WRITE, mFileSize, size);
+                mFileSize += size;
+                return segment;
+            } catch (IOException e) {
+                // the disk is full, or the arena was closed while a load goes on
+                e.printStackTrace();
+                mChannel = null;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /** @return the text of block {@code index}, decompressed if it is compressed. */
+    private byte[] getBlock(int index) {
+        OpenBlock open = mOpen;
+        if (open.mIndex == index) {
+            return open.mData;
+        }
+        synchronized (mCache) {
+            byte[] data = mCache.get(index);
+            if (data == null) {
+                data = decompress(mBlocks[index]);
+                mCache.put(index, data);
+            }
+            return data;
+        }
+    }
+
+    private byte[] decompress(Block block) {
+        byte[] compressed = new byte[block.mCompressedSize];
+        ByteBuffer segment = mSegments[(int) (block.mAddress >>> 32)].duplicate();
+        segment.position((int) block.mAddress);
+        segment.get(compressed);
+        byte[] data = new byte[block.mSize];
+        LzCodec.decompress(compressed, compressed.length, data);
+        return data;
+    }
+
+    String get(long address) {
+        byte[] data = getBlock((int) (address >>> 32));
+        int p = (int) address;
+        return decode(data, p + HEADER_SIZE, getInt(data, p + 1), data[p] != 0);
+    }
+
+    /**
+     * A text, read in place.
+     * @param chars where to point to the text, its previous range is dropped. It
+     * keeps its block, so reading the texts of a block in turn decompresses it once.
+     * @return {@code chars}
+     */
+    Chars get(long address, Chars chars) {
+        int index = (int) (address >>> 32);
+        byte[] data = chars.mArena == this && chars.mBlock == index ? chars.mData
+                : getBlock(index);
+        int p = (int) address;
+        return chars.set(this, index, data, p + HEADER_SIZE, getInt(data, p + 1), data[p] != 0);
+    }
+
+    private static String decode(byte[] data, int p, int length, boolean wide) {
+        if (!wide) {
+            // deprecated, but the fastest way from Latin-1 bytes to a String
+            @SuppressWarnings("deprecation")
+            String s = new String(data, 0, p, length);
+            return s;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++, p += 2) {
+            chars[i] = (char) ((data[p] << 8) | (data[p + 1] & 0xff));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Release the temporary file. Texts stay readable until the arena is garbage
+     * collected, texts added afterwards go to direct buffers.
+     */
+    @Override
+    public void close() {
+        FileChannel channel = mChannel;
+        mChannel = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (mFile != null) {
+            // fails while the file is mapped on some systems, it is then deleted on exit
+            mFile.delete();
+        }
+    }
+
+    /**
+     * A text of an arena, seen as a {@link CharSequence} without decoding it. One
+     * instance is meant to be reused for many texts, such as the messages matched by
+     * a filter.
+     */
+    static final class Chars implements CharSequence {
+        private TextArena mArena;
+        private int mBlock = -1;
+        private byte[] mData;
+        private int mOffset;
+        private int mLength;
+        private boolean mWide;
+
+        private Chars set(TextArena arena, int block, byte[] data, int offset, int length,
+                boolean wide) {
+            mArena = arena;
+            mBlock = block;
+            mData = data;
+            mOffset = offset;
+            mLength = length;
+            mWide = wide;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (mWide) {
+                int p = mOffset + 2 * index;
+                return (char) ((mData[p] << 8) | (mData[p + 1] & 0xff));
+            }
+            return (char) (mData[mOffset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return decode(mData, mOffset + (mWide ? 2 * start : start), end - start, mWide);
+        }
+
+        @Override
+        public String toString() {
+            return decode(mData, mOffset, mLength, mWide);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.logcat.offline.view.ddmuilib.logcat;
+
+import java.util.Arrays;
+import java.util.Calendar;
+
+import com.android.ddmuilib.logcat.LogCatMessage;
+
+/**
+ * Turns the {@code "MM-dd HH:mm:ss.SSS"} time stamps of logcat into epoch
+ * milliseconds, in the time zone of this computer.
+ * <p/>
+ * logcat does not print the year. A time stamp is taken to be in the latest year
+ * that does not put it after the reference time, the last modification time of the
+ * log file. So a log going from December to January gets the right year on both
+ * sides of the new year, wherever it is split in chunks, as long as it is less
+ * than a year old when it is saved.
+ * <p/>
+ * Each parser thread needs a decoder of its own.
+ */
+final class TimestampDecoder {
+    /**
+     * How far after the reference a time stamp may be, the clocks of the device and of
+     * the computer are not the same.
+     */
+    private static final long REFERENCE_SLACK = 24L * 60 * 60 * 1000;
+    private static final long NOT_COMPUTED = Long.MAX_VALUE;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private long mReference;
+    private int mReferenceYear;
+    /** Start of each hour of the year, indexed by {@code (month * 32 + day) * 24 + hour}. */
+    private final long[] mHours = new long[13 * 32 * 24];
+
+    private String mLastTime;
+    private long mLastTimestamp;
+
+    TimestampDecoder(long reference) {
+        setReference(reference);
+    }
+
+    /** Change the reference time, for a log file that is still being written. */
+    void setReference(long reference) {
+        if (reference <= 0) {
+            reference = System.currentTimeMillis();
+        }
+        if (reference == mReference) {
+            return;
+        }
+        mReference = reference;
+        mCalendar.setTimeInMillis(reference);
+        mReferenceYear = mCalendar.get(Calendar.YEAR);
+        Arrays.fill(mHours, NOT_COMPUTED);
+        mLastTime = null;
+    }
+
+    long getReference() {
+        return mReference;
+    }
+
+    /**
+     * Decode a time stamp of a line, {@code [start, end)} of {@code b}, already known to
+     * be laid out as {@code "MM-dd HH:mm:ss.S+"}.
+     * @return the time in epoch milliseconds, or {@link LogCatMessage#NO_TIMESTAMP} if
+     * it is not a valid date.
+     */
+    long decode(byte[] b, int start, int end) {
+        int fraction = 0;
+        int digits = 0;
+        for (int i = start + 15; i < end && digits < 3; i++, digits++) {
+            fraction = 10 * fraction + b[i] - '0';
+        }
+        return toMillis(number(b[start], b[start + 1]), number(b[start + 3], b[start + 4]),
+                number(b[start + 6], b[start + 7]), number(b[start + 9], b[start + 10]),
+                number(b[start + 12], b[start + 13]), scale(fraction, digits));
+    }
+
+    /**
+     * Decode a time stamp as the regular expressions of the parser capture it,
+     * {@code "MM-dd HH:mm:ss.S+"}.
+     * @return the time in epoch milliseconds, or {@link LogCatMessage#NO_TIMESTAMP} for
+     * any other text.
+     */
+    long decode(String time) {
+        if (time == mLastTime) {
+            // the message lines of a -v long entry share the time of its header
+            return mLastTimestamp;
+        }
+        long timestamp = LogCatMessage.NO_TIMESTAMP;
+        int length = time.length();
+        if (length > 15 && time.charAt(2) == '-' && time.charAt(8) == ':'
+                && time.charAt(11) == ':' && time.charAt(14) == '.') {
+            int fraction = 0;
+            int digits = 0;
+            for (int i = 15; i < length && digits < 3; i++, digits++) {
+                fraction = 10 * fraction + time.charAt(i) - '0';
+            }
+            timestamp = toMillis(number(time.charAt(0), time.charAt(1)),
+                    number(time.charAt(3), time.charAt(4)), number(time.charAt(6), time.charAt(7)),
+                    number(time.charAt(9), time.charAt(10)),
+                    number(time.charAt(12), time.charAt(13)), scale(fraction, digits));
+        }
+        mLastTime = time;
+        mLastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    private static int number(int tens, int units) {
+        return (tens - '0') * 10 + units - '0';
+    }
+
+    /** Scale the first {@code digits} digits of a fraction of second to milliseconds. */
+    private static int scale(int fraction, int digits) {
+        for (; digits < 3; digits++) {
+            fraction *= 10;
+        }
+        return fraction;
+    }
+
+    private long toMillis(int month, int day, int hour, int minute, int second, int millis) {
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59
+                || second > 60) {
+            return LogCatMessage.NO_TIMESTAMP;
+        }
+        int index = (month * 32 + day) * 24 + hour;
+        long start = mHours[index];
+        if (start == NOT_COMPUTED) {
+            start = findHour(month, day, hour);
+            mHours[index] = start;
+        }
+        if (start == LogCatMessage.NO_TIMESTAMP) {
+            return start;
+        }
+        return start + minute * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * Find the start of an hour in the latest year that does not put it after the
+     * reference. Years where the date does not exist, February 29 of a non leap
+     * year, are skipped.
+     */
+    private long findHour(int month, int day, int hour) {
+        for (int year = mReferenceYear + 1; year >= mReferenceYear - 8; year--) {
+            mCalendar.clear();
+            mCalendar.set(year, month - 1, 1);
+            if (day > mCalendar.getActualMaximum(Calendar.DAY_OF_MONTH)) {
+                continue;
+            }
+            mCalendar.set(Calendar.DAY_OF_MONTH, day);
+            mCalendar.set(Calendar.HOUR_OF_DAY, hour);
+            long start = mCalendar.getTimeInMillis();
+            if (start <= mReference + REFERENCE_SLACK) {
+                return start;
+            }
+        }
+        return LogCatMessage.NO_TIMESTAMP;
+    }
+}